@@ -300,7 +300,70 @@ public abstract class AbstractLdapConfiguration extends AbstractConfiguration {
      */
     private boolean enableExtraTests = false;
 
-    // TODO: failover, accountSynchronizationFilter
+    /**
+     * List of attributes that are indexed for equality in the LDAP server, the most
+     * selective attributes first. Equality clauses for these attributes are placed
+     * at the beginning of AND search filters. Some LDAP servers evaluate the filter
+     * clauses in the specified order, therefore the right order can make the search
+     * use an index instead of scanning candidate entries.
+     */
+    private String[] indexedAttributes = null;
+
+    /**
+     * Directory where the connector stores translated schema. The schema is re-used by
+     * other connector instances and after restart as long as the modifyTimestamp of LDAP
+     * subschema subentry does not change. The schema is not cached if this is not set.
+     */
+    private String schemaCacheDirectory = null;
+
+    /**
+     * Maximum number of operations that the connector sends to the server without waiting
+     * for their responses. This is used when a single operation needs to modify many entries,
+     * e.g. maintenance of reciprocal group membership attributes. Value 1 means that the
+     * connector waits for the response to every operation before it sends the next one.
+     */
+    private int maximumPipelinedOperations = 50;
+
+    /**
+     * Maximum number of attribute values in a single modification. Modifications with more
+     * values are split into several modify requests, which are sent one after another. Replace
+     * of such attribute is executed as addition and deletion of the values that differ from the
+     * current values, which needs an additional read of the entry.
+     * The update is NOT atomic if it is split. If one of the requests fails then the entry is left
+     * partially modified and other clients may see the intermediate state. Use this only for
+     * servers that refuse big modifications.
+     * Value 0 means no limit, which is the default.
+     */
+    private int maximumModificationValues = 0;
+
+    /**
+     * Attributes for which replace is sent as addition and deletion of the changed values.
+     * Current values are read from the entry and compared with the new values. This is
+     * useful for big groups (member, uniqueMember). The server does not need to rewrite
+     * the whole attribute if only few members are changed.
+     * Note that every replace of these attributes costs an additional read of the entry
+     * before the modify request. The values may also be changed by another client between
+     * the read and the modification. Empty by default.
+     */
+    private String[] deltaReplaceAttributes = null;
+
+    /**
+     * Use LDAP transactions (RFC 5805) for updates that need more than one LDAP request,
+     * e.g. rename followed by modification of other attributes. All the requests are
+     * applied at once when the transaction is committed, or none of them is applied.
+     * This is used only if the server advertises support for transactions. Modifications
+     * in a transaction are not split (see maximumModificationValues and deltaReplaceAttributes).
+     */
+    private boolean useTransactions = false;
+
+    /**
+     * Initial interval (in milliseconds) to wait before a failed write operation is re-tried.
+     * The interval doubles with each attempt (up to 64 times the initial interval) and it is
+     * randomized. The number of attempts is limited by maximumNumberOfAttempts.
+     */
+    private long retryBackoffInterval = 100;
+
+    // TODO: accountSynchronizationFilter
     // MAYBE TODO: respectResourcePasswordPolicyChangeAfterReset? filterWithOrInsteadOfAnd? 
     //			   removeLogEntryObjectClassFromFilter? synchronizePasswords? passwordAttributeToSynchronize?
 
@@ -619,6 +682,69 @@ public abstract class AbstractLdapConfiguration extends AbstractConfiguration {
 		this.enableExtraTests = enableExtraTests;
 	}
 
+	@ConfigurationProperty(order = 37)
+	public String[] getIndexedAttributes() {
+		return indexedAttributes;
+	}
+
+	public void setIndexedAttributes(String[] indexedAttributes) {
+		this.indexedAttributes = indexedAttributes;
+	}
+
+	@ConfigurationProperty(order = 38)
+	public String getSchemaCacheDirectory() {
+		return schemaCacheDirectory;
+	}
+
+	public void setSchemaCacheDirectory(String schemaCacheDirectory) {
+		this.schemaCacheDirectory = schemaCacheDirectory;
+	}
+
+	@ConfigurationProperty(order = 39)
+	public int getMaximumPipelinedOperations() {
+		return maximumPipelinedOperations;
+	}
+
+	public void setMaximumPipelinedOperations(int maximumPipelinedOperations) {
+		this.maximumPipelinedOperations = maximumPipelinedOperations;
+	}
+
+	@ConfigurationProperty(order = 40)
+	public int getMaximumModificationValues() {
+		return maximumModificationValues;
+	}
+
+	public void setMaximumModificationValues(int maximumModificationValues) {
+		this.maximumModificationValues = maximumModificationValues;
+	}
+
+	@ConfigurationProperty(order = 41)
+	public String[] getDeltaReplaceAttributes() {
+		return deltaReplaceAttributes;
+	}
+
+	public void setDeltaReplaceAttributes(String[] deltaReplaceAttributes) {
+		this.deltaReplaceAttributes = deltaReplaceAttributes;
+	}
+
+	@ConfigurationProperty(order = 42)
+	public boolean isUseTransactions() {
+		return useTransactions;
+	}
+
+	public void setUseTransactions(boolean useTransactions) {
+		this.useTransactions = useTransactions;
+	}
+
+	@ConfigurationProperty(order = 43)
+	public long getRetryBackoffInterval() {
+		return retryBackoffInterval;
+	}
+
+	public void setRetryBackoffInterval(long retryBackoffInterval) {
+		this.retryBackoffInterval = retryBackoffInterval;
+	}
+
 	@Override
     public void validate() {
     	validateNotBlank(host, "host.blank");
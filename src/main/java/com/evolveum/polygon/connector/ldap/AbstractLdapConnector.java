@@ -17,12 +17,21 @@
 package com.evolveum.polygon.connector.ldap;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.directory.api.ldap.codec.BasicControlDecorator;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
 import org.apache.directory.api.ldap.extras.controls.permissiveModify.PermissiveModify;
 import org.apache.directory.api.ldap.extras.controls.permissiveModify.PermissiveModifyImpl;
 import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
@@ -30,12 +39,14 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.cursor.CursorLdapReferralException;
 import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.BinaryValue;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.StringValue;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
@@ -47,6 +58,14 @@ import org.apache.directory.api.ldap.model.message.AddRequest;
 import org.apache.directory.api.ldap.model.message.AddRequestImpl;
 import org.apache.directory.api.ldap.model.message.AddResponse;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.DeleteResponse;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
+import org.apache.directory.api.ldap.model.message.ModifyDnRequestImpl;
+import org.apache.directory.api.ldap.model.message.ModifyDnResponse;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
 import org.apache.directory.api.ldap.model.message.ModifyResponse;
@@ -54,9 +73,12 @@ import org.apache.directory.api.ldap.model.message.Response;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
 import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -68,14 +90,17 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.ldap.client.api.DefaultSchemaLoader;
+import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.apache.directory.ldap.client.api.exception.InvalidConnectionException;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.PreconditionFailedException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
@@ -108,9 +133,14 @@ import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
 
 import com.evolveum.polygon.common.SchemaUtil;
 import com.evolveum.polygon.connector.ldap.schema.GuardedStringValue;
+import com.evolveum.polygon.connector.ldap.schema.LdapFilterOptimizer;
 import com.evolveum.polygon.connector.ldap.schema.LdapFilterTranslator;
+import com.evolveum.polygon.connector.ldap.schema.SchemaFileCache;
+import com.evolveum.polygon.connector.ldap.schema.SchemaLoaderConnection;
+import com.evolveum.polygon.connector.ldap.schema.SharedSchemaManager;
 import com.evolveum.polygon.connector.ldap.schema.AbstractSchemaTranslator;
 import com.evolveum.polygon.connector.ldap.schema.ScopedFilter;
+import com.evolveum.polygon.connector.ldap.search.CombinedSearch;
 import com.evolveum.polygon.connector.ldap.search.DefaultSearchStrategy;
 import com.evolveum.polygon.connector.ldap.search.SearchStrategy;
 import com.evolveum.polygon.connector.ldap.search.SimplePagedResultsSearchStrategy;
@@ -127,10 +157,18 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
     
     private C configuration;
     private ConnectionManager<C> connectionManager;
+    private WriteExecutor<C> writeExecutor;
+    private SharedSchemaManager sharedSchemaManager = null;
     private SchemaManager schemaManager = null;
     private AbstractSchemaTranslator<C> schemaTranslator = null;
     private SyncStrategy<C> syncStrategy = null;
     private Boolean usePermissiveModify = null;
+    private boolean transactionRequested = false;
+    private LdapTransaction transaction = null;
+    // Indexed by server URL. Connections are re-created when the server is reconnected.
+    private final Map<String, Boolean> transactionSupport = new HashMap<>();
+    private Control assertionControl = null;
+    private Dn assertionDn = null;
 
     public AbstractLdapConnector() {
 		super();
@@ -145,7 +183,7 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
     protected ConnectionManager<C> getConnectionManager() {
 		return connectionManager;
 	}
-
+    
 	@Override
     public void init(Configuration configuration) {
 		LOG.info("Initializing {0} connector instance {1}", this.getClass().getSimpleName(), this);
@@ -153,9 +191,14 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
         this.configuration.recompute();
         connectionManager = new ConnectionManager<>(this.configuration);
         connectionManager.connect();
+        writeExecutor = new WriteExecutor<>(connectionManager, this.configuration);
         if (LOG.isOk()) {
         	LOG.ok("Servers:\n{0}", connectionManager.dumpServers());
         }
+        String fingerprint = LdapUtil.getConfigurationFingerprint(this.configuration);
+        if (fingerprint != null) {
+        	sharedSchemaManager = SharedSchemaManager.acquire(this.getClass().getName() + ":" + fingerprint);
+        }
     }
     
     @Override
@@ -167,9 +210,8 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		} catch (IOException e) {
 			throw new ConnectorIOException(e.getMessage(), e);
 		}
-        schemaManager = null;
-        schemaTranslator = null;
         connectionManager.connect();
+        refreshSchemaManager(readSchemaTimestamp());
         if (configuration.isEnableExtraTests()) {
         	extraTests();
         }
@@ -296,53 +338,123 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 
 	protected SchemaManager getSchemaManager() {
     	if (schemaManager == null) {
+    		if (sharedSchemaManager == null) {
+    			schemaManager = loadSchemaManager(SchemaFileCache.getCache(configuration) == null ? null : readSchemaTimestamp());
+    		} else {
+    			schemaManager = sharedSchemaManager.getSchemaManager(new SharedSchemaManager.Loader() {
+					@Override
+					public String readSchemaTimestamp() {
+						return AbstractLdapConnector.this.readSchemaTimestamp();
+					}
+					@Override
+					public SchemaManager load(String schemaTimestamp) {
+						return loadSchemaManager(schemaTimestamp);
+					}
+				});
+    		}
+    	}
+    	return schemaManager;
+    }
+    
+    /**
+     * Throws away the schema manager and everything that depends on it.
+     * Fresh schema is loaded when it is needed next time.
+     */
+    private void invalidateSchemaManager() {
+    	if (sharedSchemaManager != null) {
+    		sharedSchemaManager.invalidate(schemaManager);
+    	}
+    	schemaManager = null;
+    	schemaTranslator = null;
+    }
+    
+    /**
+     * Throws away the schema manager and everything that depends on it, but only if the schema
+     * on the server has changed. The change is detected by comparing the schema timestamp.
+     * Returns true if the schema was thrown away.
+     */
+    private boolean refreshSchemaManager(String currentSchemaTimestamp) {
+    	if (sharedSchemaManager == null) {
+    		invalidateSchemaManager();
+    		return true;
+    	}
+    	if (!sharedSchemaManager.invalidateIfChanged(schemaManager, currentSchemaTimestamp)) {
+    		return false;
+    	}
+    	schemaManager = null;
+    	schemaTranslator = null;
+    	return true;
+    }
+    
+    /**
+     * Loads schema manager from the server. If the schema file cache is enabled then the schema
+     * is loaded from the cache. Schema that was loaded from the server is stored in the cache.
+     * The cache is used only if the schema timestamp is known.
+     */
+    private SchemaManager loadSchemaManager(String schemaTimestamp) {
+    	SchemaFileCache schemaFileCache = schemaTimestamp == null ? null : SchemaFileCache.getCache(configuration);
+    	Map<String, Entry> cachedSchemaEntries = null;
+    	Map<String, Entry> recordedSchemaEntries = null;
+    	LdapConnection loaderConnection = connectionManager.getDefaultConnection();
+    	if (schemaFileCache != null) {
+    		cachedSchemaEntries = schemaFileCache.getSchemaEntries(schemaTimestamp);
+    		if (cachedSchemaEntries != null) {
+    			loaderConnection = SchemaLoaderConnection.replaying(cachedSchemaEntries);
+    		} else {
+    			recordedSchemaEntries = new HashMap<>();
+    			loaderConnection = SchemaLoaderConnection.recording(loaderConnection, recordedSchemaEntries);
+    		}
+    	}
+    	SchemaManager schemaManager;
+    	try {
+    		boolean schemaQuirksMode = configuration.isSchemaQuirksMode();
+    		LOG.ok("Loading schema (quirksMode={0}, cached={1})", schemaQuirksMode, cachedSchemaEntries != null);
+    		DefaultSchemaLoader schemaLoader = new DefaultSchemaLoader(loaderConnection, schemaQuirksMode);
+    		DefaultSchemaManager defSchemaManager = new DefaultSchemaManager(schemaLoader);
     		try {
-    			boolean schemaQuirksMode = configuration.isSchemaQuirksMode();
-    			LOG.ok("Loading schema (quirksMode={0})", schemaQuirksMode);
-    			DefaultSchemaLoader schemaLoader = new DefaultSchemaLoader(connectionManager.getDefaultConnection(), schemaQuirksMode);
-    			DefaultSchemaManager defSchemaManager = new DefaultSchemaManager(schemaLoader);
-    			try {
-    				if (schemaQuirksMode) {
+    			if (schemaQuirksMode) {
         				defSchemaManager.setRelaxed();
         				defSchemaManager.loadAllEnabledRelaxed();
-    				} else {
-    					defSchemaManager.loadAllEnabled();
-    				}
-				} catch (Exception e) {
-					throw new ConnectorIOException(e.getMessage(), e);
-				}
-    			if ( !defSchemaManager.getErrors().isEmpty() ) {
-    				if (schemaQuirksMode) {
-    					LOG.ok("There are {0} schema errors, but we are in quirks mode so we are ignoring them", defSchemaManager.getErrors().size());
-    					if (isLogSchemaErrors()) {
+    			} else {
+    				defSchemaManager.loadAllEnabled();
+    			}
+			} catch (Exception e) {
+				throw new ConnectorIOException(e.getMessage(), e);
+			}
+    		if ( !defSchemaManager.getErrors().isEmpty() ) {
+    			if (schemaQuirksMode) {
+    				LOG.ok("There are {0} schema errors, but we are in quirks mode so we are ignoring them", defSchemaManager.getErrors().size());
+    				if (isLogSchemaErrors()) {
 	    					for (Throwable error: defSchemaManager.getErrors()) {
 	    						LOG.ok("Schema error (ignored): {0}: {1}", error.getClass().getName(), error.getMessage());
 	    					}
-    					}
-    				} else {
-    					throw new ConnectorIOException("Errors loading schema "+defSchemaManager.getErrors());
     				}
+    			} else {
+    				throw new ConnectorIOException("Errors loading schema "+defSchemaManager.getErrors());
     			}
-    			schemaManager = defSchemaManager;
+    		}
+    		schemaManager = defSchemaManager;
 //    			connection.setSchemaManager(defSchemaManager);
 //    			connection.loadSchema(defSchemaManager);
-    		} catch (LdapException e) {
-    			throw new ConnectorIOException(e.getMessage(), e);
-    		} catch (Exception e) {
-    			// Brutal. We cannot really do anything smarter here.
-				throw new ConnectorException(e.getMessage(), e);
-			}
-    		
-    		try {
-				LOG.info("Schema loaded, {0} schemas, {1} object classes, {2} errors",
-						schemaManager.getAllSchemas().size(),
-						schemaManager.getObjectClassRegistry().size(),
-						schemaManager.getErrors().size());
-			} catch (Exception e) {
-				throw new RuntimeException(e.getMessage(),e);
-			}
-    		patchSchemaManager(schemaManager);
+    	} catch (LdapException e) {
+    		throw new ConnectorIOException(e.getMessage(), e);
+    	} catch (Exception e) {
+    		// Brutal. We cannot really do anything smarter here.
+			throw new ConnectorException(e.getMessage(), e);
+		}
+    	
+    	try {
+			LOG.info("Schema loaded, {0} schemas, {1} object classes, {2} errors",
+					schemaManager.getAllSchemas().size(),
+					schemaManager.getObjectClassRegistry().size(),
+					schemaManager.getErrors().size());
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(),e);
+		}
+    	if (recordedSchemaEntries != null) {
+    		schemaFileCache.putSchemaEntries(schemaTimestamp, recordedSchemaEntries);
     	}
+    	patchSchemaManager(schemaManager);
     	return schemaManager;
     }
     
@@ -357,6 +469,9 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 	protected AbstractSchemaTranslator<C> getSchemaTranslator() {
     	if (schemaTranslator == null) {
     		schemaTranslator = createSchemaTranslator();
+    		if (sharedSchemaManager != null) {
+    			schemaTranslator.setTranslatedObjectClasses(sharedSchemaManager.getTranslatedObjectClasses());
+    		}
     		connectionManager.setSchemaTranslator(schemaTranslator);
     	}
     	return schemaTranslator;
@@ -369,30 +484,73 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
     	if (!connectionManager.isConnected()) {
     		return null;
     	}
-    	// always fetch fresh schema when this method is called
-    	schemaManager = null;
-    	schemaTranslator = null;
+    	// The schema did not change if the timestamp is the same. No need to fetch it.
+    	String schemaTimestamp = readSchemaTimestamp();
+    	if (!refreshSchemaManager(schemaTimestamp)) {
+    		Schema icfSchema = getSchemaTranslator().getIcfSchema();
+    		if (icfSchema != null) {
+    			LOG.ok("Schema has not changed (timestamp {0}), using translated schema", schemaTimestamp);
+    			return icfSchema;
+    		}
+    	}
+    	SchemaFileCache schemaFileCache = SchemaFileCache.getCache(configuration);
+    	if (schemaFileCache != null) {
+    		Schema cachedSchema = schemaFileCache.getSchema(schemaTimestamp);
+    		if (cachedSchema != null) {
+    			getSchemaTranslator().setIcfSchema(cachedSchema);
+    			getSchemaTranslator().setSchemaCacheChecked(true);
+    			return cachedSchema;
+    		}
+    	}
+    	// Schema manager is fresh now, unless the schema has not changed. Translated object
+    	// classes that have not changed are reused by the translator.
+    	Schema icfSchema;
     	try {
-    		return getSchemaTranslator().translateSchema(connectionManager);
+    		icfSchema = getSchemaTranslator().translateSchema(connectionManager);
     	} catch (InvalidConnectionException e) {
     		// The connection might have been disconnected. Try to reconnect.
     		connectionManager.connect();
 			try {
-				return getSchemaTranslator().translateSchema(connectionManager);
+				icfSchema = getSchemaTranslator().translateSchema(connectionManager);
 			} catch (InvalidConnectionException e1) {
 				throw new ConnectorException("Reconnect error: "+e.getMessage(), e);
 			}
     	}
+    	if (schemaFileCache != null) {
+    		schemaFileCache.putSchema(schemaTimestamp, icfSchema);
+    	}
+    	return icfSchema;
 	}
     
+    /**
+     * Use cached ConnId schema if there is one. Complete schema is not translated here.
+     * Object classes are translated on demand when they are needed (see schema translator).
+     * Complete schema is translated only when it is explicitly requested by schema().
+     */
     private void prepareIcfSchema() {
+    	AbstractSchemaTranslator<C> translator = getSchemaTranslator();
+    	if (translator.getIcfSchema() != null || translator.isSchemaCacheChecked()) {
+    		return;
+    	}
+    	SchemaFileCache schemaFileCache = SchemaFileCache.getCache(configuration);
+    	if (schemaFileCache != null) {
+    		Schema cachedSchema = schemaFileCache.getSchema(readSchemaTimestamp());
+    		if (cachedSchema != null) {
+    			translator.setIcfSchema(cachedSchema);
+    		}
+    	}
+    	// Do not check the cache again (and do not read the timestamp again) until the schema changes
+    	translator.setSchemaCacheChecked(true);
+    }
+    
+    private String readSchemaTimestamp() {
     	try {
-    		getSchemaTranslator().prepareIcfSchema(connectionManager);
+    		return LdapUtil.readSchemaTimestamp(connectionManager.getDefaultConnection());
     	} catch (InvalidConnectionException e) {
     		// The connection might have been disconnected. Try to reconnect.
     		connectionManager.connect();
 			try {
-				getSchemaTranslator().prepareIcfSchema(connectionManager);
+				return LdapUtil.readSchemaTimestamp(connectionManager.getDefaultConnection());
 			} catch (InvalidConnectionException e1) {
 				throw new ConnectorException("Reconnect error: "+e.getMessage(), e);
 			}
@@ -554,9 +712,10 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		}
 	}
 	
-	private SearchStrategy<C> searchBySecondaryIdenfiers(Filter icfFilter, ObjectClass objectClass, org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass,
-			final ResultsHandler handler, OperationOptions options) {
-		// This translated to a base search.
+	private SearchStrategy<C> searchBySecondaryIdenfiers(Filter icfFilter, final ObjectClass objectClass, 
+			final org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass,
+			final ResultsHandler handler, final OperationOptions options) {
+		// This translated to a base search and an ordinary search.
 		// We know that this can return at most one object. Therefore always use simple search.
 		
 		Filter leftSubfilter = ((OrFilter)icfFilter).getLeft();
@@ -571,50 +730,53 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 			otherSubfilter = leftSubfilter;
 		}
 		
-		final String[] mutableFirstUid = new String[1];
-		ResultsHandler innerHandler = new ResultsHandler() {
-			@Override
-			public boolean handle(ConnectorObject connectorObject) {
-				if (mutableFirstUid[0] == null) {
-					mutableFirstUid[0] = connectorObject.getUid().getUidValue();
-				} else {
-					if (connectorObject.getUid().getUidValue().equals(mutableFirstUid[0])) {
-						// We have already returned this object, skip it.
-						return true;
-					}
-				}
-				return handler.handle(connectorObject);
-			}
-		};
-		
-		// Search by DN first. This is supposed to be more efficient.
-
-		Dn dn = schemaTranslator.toDn(dnSubfilter.getAttribute());
-		try {
-			searchByDn(dn, objectClass, ldapObjectClass, innerHandler, options);
-		} catch (UnknownUidException e) {
-			// No problem. The Dn is not here. Just no on.
-			LOG.ok("The DN \"{0}\" not found: {1} (this is OK)", dn, e.getMessage());
-		}
-		
-		// Search by the other attribute now
+		final Dn dn = schemaTranslator.toDn(dnSubfilter.getAttribute());
 		
-		// We know that this can return at most one object. Therefore always use simple search.
-		SearchStrategy<C> searchStrategy = getDefaultSearchStrategy(objectClass, ldapObjectClass, innerHandler, options);
 		LdapFilterTranslator filterTranslator = new LdapFilterTranslator(getSchemaTranslator(), ldapObjectClass);
 		ScopedFilter scopedFilter = filterTranslator.translate(otherSubfilter, ldapObjectClass);
-		ExprNode filterNode = scopedFilter.getFilter();
-		String[] attributesToGet = getAttributesToGet(ldapObjectClass, options);
-		SearchScope scope = getScope(options);
-		Dn baseDn = getBaseDn(options);
+		final ExprNode filterNode = scopedFilter.getFilter();
+		final String[] attributesToGet = getAttributesToGet(ldapObjectClass, options);
+		final SearchScope scope = getScope(options);
+		final Dn baseDn = getBaseDn(options);
 		checkBaseDnPresent(baseDn);
-		try {
-			searchStrategy.search(baseDn, filterNode, scope, attributesToGet);
-		} catch (LdapException e) {
-			throw LdapUtil.processLdapException("Error searching in "+baseDn, e);
-		}
 		
-		return searchStrategy;
+		// Search by DN first. This is supposed to be more efficient. If it finds the object then
+		// the other search is skipped. The combined search also takes care that the same object
+		// is not returned twice.
+		CombinedSearch<C> combinedSearch = new CombinedSearch<>(handler);
+		
+		combinedSearch.addTask(new CombinedSearch.Task<C>("by DN "+dn, true) {
+			@Override
+			protected SearchStrategy<C> search(ResultsHandler taskHandler) {
+				try {
+					return searchByDn(dn, objectClass, ldapObjectClass, taskHandler, options);
+				} catch (UnknownUidException e) {
+					// No problem. The Dn is not here. Just no on.
+					LOG.ok("The DN \"{0}\" not found: {1} (this is OK)", dn, e.getMessage());
+					return null;
+				}
+			}
+		});
+		
+		combinedSearch.addTask(new CombinedSearch.Task<C>("by "+filterNode, false) {
+			@Override
+			protected SearchStrategy<C> search(ResultsHandler taskHandler) {
+				if (LdapFilterOptimizer.isFalse(filterNode)) {
+					LOG.ok("Filter {0} cannot match any entry, skipping the search", filterNode);
+					return null;
+				}
+				// We know that this can return at most one object. Therefore always use simple search.
+				SearchStrategy<C> searchStrategy = getDefaultSearchStrategy(objectClass, ldapObjectClass, taskHandler, options);
+				try {
+					searchStrategy.search(baseDn, filterNode, scope, attributesToGet);
+				} catch (LdapException e) {
+					throw LdapUtil.processLdapException("Error searching in "+baseDn, e);
+				}
+				return searchStrategy;
+			}
+		});
+		
+		return combinedSearch.execute();
 				
 	}
 
@@ -630,6 +792,10 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		LdapFilterTranslator filterTranslator = createLdapFilterTranslator(ldapObjectClass);
 		ScopedFilter scopedFilter = filterTranslator.translate(icfFilter, ldapObjectClass);
 		ExprNode filterNode = scopedFilter.getFilter();
+		if (LdapFilterOptimizer.isFalse(filterNode)) {
+			LOG.ok("Filter {0} cannot match any entry, skipping the search", icfFilter);
+			return null;
+		}
 		String[] attributesToGet = getAttributesToGet(ldapObjectClass, options);
 		
 		SearchStrategy<C> searchStrategy;
@@ -773,6 +939,88 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 	@Override
 	public Uid create(ObjectClass icfObjectClass, Set<Attribute> createAttributes, OperationOptions options) {
 		
+		final Entry entry = prepareEntry(icfObjectClass, createAttributes);
+		String dnStringFromName = entry.getDn().getName();
+		
+		processEntryBeforeCreate(entry);
+		
+		Uid uid = getUidFromCreateAttributes(dnStringFromName, createAttributes);
+		
+		return addEntry(entry, uid, false);
+	}
+	
+	/**
+	 * Adds the entry. Returns its UID. If outcomeUnknown is set then the previous attempt
+	 * to add the entry ended without a response (see WriteExecutor.executeAgain()).
+	 */
+	private Uid addEntry(final Entry entry, final Uid uid, boolean outcomeUnknown) {
+		String dnStringFromName = entry.getDn().getName();
+		WriteExecutor.Operation<AddResponse> operation = new WriteExecutor.Operation<AddResponse>() {
+			@Override
+			public AddResponse execute(LdapNetworkConnection connection) throws LdapException {
+				return ldapAddAttempt(connection, entry, uid == null);
+			}
+		};
+		
+		AddResponse addResponse;
+		try {
+			
+			// Entry that already exists after a lost connection was added by the previous attempt
+			if (outcomeUnknown) {
+				addResponse = writeExecutor.executeAgain("Add", entry.getDn(), operation, ResultCodeEnum.ENTRY_ALREADY_EXISTS);
+			} else {
+				addResponse = writeExecutor.execute("Add", entry.getDn(), true, operation, ResultCodeEnum.ENTRY_ALREADY_EXISTS);
+			}
+			
+		} catch (LdapException e) {
+			throw LdapUtil.processLdapException("Error adding LDAP entry "+dnStringFromName, e);
+		}
+		
+		if (addResponse == null) {
+			// The entry might have been created by someone else
+			verifyAddedEntry(entry, uid);
+		} else if (addResponse.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
+			throw processCreateResult(dnStringFromName, addResponse);
+		}
+
+		if (uid != null) {
+			return uid;
+		}
+		
+		return getUidOfCreatedEntry(entry, addResponse);
+	}
+	
+	private AddResponse ldapAddAttempt(LdapNetworkConnection connection, Entry entry, boolean readUid) throws LdapException {
+		AddRequest addRequest = createAddRequest(connection, entry, readUid);
+		
+		OperationLog.logOperationReq(connection, "Add REQ Entry:\n{0}" , entry);
+		
+		AddResponse addResponse;
+		try {
+			addResponse = connection.add(addRequest);
+		} catch (LdapException e) {
+			OperationLog.logOperationErr(connection, "Add ERROR {0}: {1}", entry.getDn(), e.getMessage(), e);
+			throw e;
+		}
+		
+		OperationLog.logOperationRes(connection, "Add RES {0}: {1}", entry.getDn(), addResponse.getLdapResult());
+		return addResponse;
+	}
+	
+	private AddRequest createAddRequest(LdapNetworkConnection connection, Entry entry, boolean readUid) {
+		AddRequest addRequest = new AddRequestImpl();
+		addRequest.setEntry(entry);
+		if (readUid && isControlSupported(connection, PostReadControl.OID)) {
+			// UID is generated by the server. Ask for it in the response, so we do not need to read the entry again.
+			addRequest.addControl(PostReadControl.createRequest(configuration.getUidAttribute()));
+		}
+		return addRequest;
+	}
+	
+	/**
+	 * Translates create attributes to LDAP entry.
+	 */
+	private Entry prepareEntry(ObjectClass icfObjectClass, Set<Attribute> createAttributes) {
 		String dnStringFromName = null;
 		for (Attribute icfAttr: createAttributes) {
 			if (icfAttr.is(Name.NAME)) {
@@ -829,43 +1077,36 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 			LOG.ok("Adding entry: {0}", entry);
 		}
 		
-		processEntryBeforeCreate(entry);
-		
-		AddRequest addRequest = new AddRequestImpl();
-		addRequest.setEntry(entry);
-		
-		Dn entryDn = addRequest.getEntryDn();
-		LdapNetworkConnection connection = connectionManager.getConnection(entryDn);
-		
-		OperationLog.logOperationReq(connection, "Add REQ Entry:\n{0}" , entry);
-		
-		AddResponse addResponse;
-		try {
-			
-			addResponse = connection.add(addRequest);
-			
-		} catch (LdapException e) {
-			OperationLog.logOperationErr(connection, "Add ERROR {0}: {1}", dnStringFromName, e.getMessage(), e);
-			throw LdapUtil.processLdapException("Error adding LDAP entry "+dnStringFromName, e);
-		}
-		
-		OperationLog.logOperationRes(connection, "Add RES {0}: {1}", dnStringFromName, addResponse.getLdapResult());
-		
-		if (addResponse.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
-			throw processCreateResult(dnStringFromName, addResponse);
-		}
-
+		return entry;
+	}
+	
+	/**
+	 * Returns UID of the new entry if it can be determined from the create attributes.
+	 * Returns null if the UID is generated by the server.
+	 */
+	private Uid getUidFromCreateAttributes(String dnStringFromName, Set<Attribute> createAttributes) {
 		String uidAttributeName = configuration.getUidAttribute();
 		if (LdapUtil.isDnAttribute(uidAttributeName)) {
 			return new Uid(dnStringFromName);
 		}
-		
 		Uid uid = null;
 		for (Attribute icfAttr: createAttributes) {
 			if (icfAttr.is(uidAttributeName)) {
 				uid = new Uid(SchemaUtil.getSingleStringNonBlankValue(icfAttr));
 			}
 		}
+		return uid;
+	}
+	
+	/**
+	 * Returns UID generated by the server. Takes it from the post-read control if possible,
+	 * reads the entry otherwise. The response is null if the entry was added by an attempt
+	 * whose response was lost (see WriteExecutor).
+	 */
+	private Uid getUidOfCreatedEntry(Entry entry, AddResponse addResponse) {
+		String uidAttributeName = configuration.getUidAttribute();
+		String dnStringFromName = entry.getDn().getName();
+		Uid uid = addResponse == null ? null : getUidFromPostRead(addResponse, uidAttributeName);
 		if (uid != null) {
 			return uid;
 		}
@@ -890,6 +1131,89 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		return uid;
 	}
 
+	/**
+	 * Checks that the entry that exists after a lost connection is the entry that was added
+	 * by the previous attempt. It may be a different entry with the same DN, created by someone
+	 * else. Object classes and UID (if it is not generated by the server) are compared.
+	 */
+	private void verifyAddedEntry(Entry entry, Uid uid) {
+		String uidAttributeName = configuration.getUidAttribute();
+		boolean checkUid = uid != null && !LdapUtil.isDnAttribute(uidAttributeName);
+		String[] attributesToGet;
+		if (checkUid) {
+			attributesToGet = new String[]{ SchemaConstants.OBJECT_CLASS_AT, uidAttributeName };
+		} else {
+			attributesToGet = new String[]{ SchemaConstants.OBJECT_CLASS_AT };
+		}
+		Entry existingEntry = searchSingleEntry(connectionManager, entry.getDn(), LdapUtil.createAllSearchFilter(), SearchScope.OBJECT, 
+				attributesToGet, "re-reading entry to verify that it was added");
+		org.apache.directory.api.ldap.model.entry.Attribute existingObjectClasses = existingEntry.get(SchemaConstants.OBJECT_CLASS_AT);
+		for (Value<?> objectClass: entry.get(SchemaConstants.OBJECT_CLASS_AT)) {
+			if (!containsIgnoreCase(existingObjectClasses, objectClass.getString())) {
+				throw new AlreadyExistsException("Entry "+entry.getDn()+" already exists and it does not have object class "+objectClass.getString());
+			}
+		}
+		if (checkUid) {
+			org.apache.directory.api.ldap.model.entry.Attribute existingUid = existingEntry.get(uidAttributeName);
+			AttributeType uidLdapAttributeType = getSchemaManager().getAttributeType(uidAttributeName);
+			if (existingUid == null || existingUid.size() != 1) {
+				throw new AlreadyExistsException("Entry "+entry.getDn()+" already exists and it does not have single value of "+uidAttributeName);
+			}
+			// Compared in the ConnId form, binary UIDs (e.g. GUID) are formatted as strings
+			String existingUidValue = getSchemaTranslator().toIcfIdentifierValue(existingUid.get(), uidAttributeName, uidLdapAttributeType);
+			if (!getComparisonKey(uidLdapAttributeType, new StringValue(existingUidValue))
+					.equals(getComparisonKey(uidLdapAttributeType, new StringValue(uid.getUidValue())))) {
+				throw new AlreadyExistsException("Entry "+entry.getDn()+" already exists and it has different "+uidAttributeName);
+			}
+		}
+		LOG.ok("Entry {0} was added by the previous attempt", entry.getDn());
+	}
+	
+	private boolean containsIgnoreCase(org.apache.directory.api.ldap.model.entry.Attribute attribute, String stringValue) {
+		if (attribute == null) {
+			return false;
+		}
+		for (Value<?> value: attribute) {
+			if (stringValue.equalsIgnoreCase(value.getString())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isControlSupported(LdapNetworkConnection connection, String oid) {
+		try {
+			return connection.isControlSupported(oid);
+		} catch (LdapException e) {
+			LOG.ok("Cannot determine support for control {0}: {1}", oid, e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns UID from the post-read control in the add response.
+	 * Returns null if there is no such control or the UID is not there.
+	 */
+	private Uid getUidFromPostRead(AddResponse addResponse, String uidAttributeName) {
+		Control postReadControl = addResponse.getControl(PostReadControl.OID);
+		if (postReadControl == null) {
+			return null;
+		}
+		List<byte[]> values = PostReadControl.getAttributeValues(postReadControl, uidAttributeName);
+		if (values == null || values.size() != 1) {
+			LOG.ok("No usable value of {0} in post-read control, re-reading entry", uidAttributeName);
+			return null;
+		}
+		Value<?> uidLdapAttributeValue;
+		if (getSchemaTranslator().detectBinaryAttribute(uidAttributeName)) {
+			uidLdapAttributeValue = new BinaryValue(values.get(0));
+		} else {
+			uidLdapAttributeValue = new StringValue(new String(values.get(0), StandardCharsets.UTF_8));
+		}
+		AttributeType uidLdapAttributeType = getSchemaManager().getAttributeType(uidAttributeName);
+		return new Uid(getSchemaTranslator().toIcfIdentifierValue(uidLdapAttributeValue, uidAttributeName, uidLdapAttributeType));
+	}
+
 	protected RuntimeException processCreateResult(String dn, AddResponse addResponse) {
 		 return LdapUtil.processLdapResult("Error adding LDAP entry " + dn, addResponse.getLdapResult());
 	}
@@ -901,62 +1225,279 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 	@Override
 	public Uid update(ObjectClass objectClass, Uid uid, Set<Attribute> replaceAttributes,
 			OperationOptions options) {
-    	
-		Dn newDn = null;
-		for (Attribute icfAttr: replaceAttributes) {
-			if (icfAttr.is(Name.NAME)) {
-				// This is rename. Which means change of DN. This is a special operation
-				
-				newDn = getSchemaTranslator().toDn(icfAttr);
-				ldapRename(objectClass, uid, newDn, options);
-				
-				// Do NOT return here. There may still be other (non-name) attributes to update
+		
+		requestTransaction(objectClass, replaceAttributes, ModificationOperation.REPLACE_ATTRIBUTE);
+		try {
+			prepareAssertion(options);
+			
+			Dn newDn = null;
+			for (Attribute icfAttr: replaceAttributes) {
+				if (icfAttr.is(Name.NAME)) {
+					// This is rename. Which means change of DN. This is a special operation
+					
+					newDn = getSchemaTranslator().toDn(icfAttr);
+					ldapRename(objectClass, uid, newDn, options);
+					
+					// Do NOT return here. There may still be other (non-name) attributes to update
+				}
 			}
+			
+			Uid updatedUid = ldapUpdate(objectClass, uid, newDn, replaceAttributes, options, ModificationOperation.REPLACE_ATTRIBUTE);
+			commitTransaction();
+			return updatedUid;
+			
+		} finally {
+			abortTransaction();
+			clearAssertion();
 		}
-    	
-    	return ldapUpdate(objectClass, uid, newDn, replaceAttributes, options, ModificationOperation.REPLACE_ATTRIBUTE);
 	}
 	
-	private void ldapRename(ObjectClass objectClass, Uid uid, Dn newDn, OperationOptions options) {
-		Dn oldDn;
-		
-		if (getConfiguration().isUseUnsafeNameHint() && uid.getNameHint() != null) {
-			String dnHintString = uid.getNameHintValue();
-			oldDn = getSchemaTranslator().toDn(dnHintString);
-			LOG.ok("Using (unsafe) DN from the name hint: {0} for rename", oldDn);
-			try {
-				
-				ldapRenameAttempt(oldDn, newDn);
-				return;
-			
-			} catch (Throwable e) {
-				LOG.warn("Attempt to delete object with DN failed (DN taked from the name hint). The operation will continue with next attempt. Error: {0}",
-						e.getMessage(), e);
+	/**
+	 * Returns true if the update needs more than one LDAP request. Such updates are executed
+	 * in a transaction if transactions are enabled and supported by the server.
+	 */
+	protected boolean isMultiRequestUpdate(ObjectClass icfObjectClass, Set<Attribute> values, ModificationOperation modOp) {
+		return modOp == ModificationOperation.REPLACE_ATTRIBUTE && values.size() > 1 && containsName(values);
+	}
+	
+	private boolean containsName(Set<Attribute> attributes) {
+		for (Attribute icfAttr: attributes) {
+			if (icfAttr.is(Name.NAME)) {
+				return true;
 			}
 		}
-		
-		oldDn = resolveDn(objectClass, uid, options);
-		LOG.ok("Resolved DN: {0}", oldDn);
-		
-		ldapRenameAttempt(oldDn, newDn);
+		return false;
 	}
 	
-	private void ldapRenameAttempt(Dn oldDn, Dn newDn) {
-		if (oldDn.equals(newDn)) {
-			// nothing to rename, just ignore
-		} else {
-			LdapNetworkConnection connection = connectionManager.getConnection(oldDn);
-			try {
-				OperationLog.logOperationReq(connection, "MoveAndRename REQ {0} -> {1}", oldDn, newDn);
-				// Make sure that DNs are passed in as (user-provided) strings. Otherwise the Directory API
-				// will convert it do OID=value notation. And some LDAP servers (such as OpenDJ) does not handle
-				// that well.
-				connection.moveAndRename(oldDn.getName(), newDn.getName());
-				OperationLog.logOperationRes(connection, "MoveAndRename RES OK {0} -> {1}", oldDn, newDn);
-			} catch (LdapException e) {
-				OperationLog.logOperationErr(connection, "MoveAndRename ERROR {0} -> {1}: {2}", oldDn, newDn, e.getMessage(), e);
-				throw LdapUtil.processLdapException("Rename/move of LDAP entry from "+oldDn+" to "+newDn+" failed", e);
-			}
+	private void requestTransaction(ObjectClass icfObjectClass, Set<Attribute> values, ModificationOperation modOp) {
+		if (configuration.isUseTransactions() && isMultiRequestUpdate(icfObjectClass, values, modOp)) {
+			LOG.ok("Update of {0} needs more than one LDAP request, using transaction", icfObjectClass);
+			transactionRequested = true;
+		}
+	}
+	
+	/**
+	 * Returns transaction specification control for an update request that is sent over
+	 * the connection. The transaction is started by the first update request.
+	 * Returns null if the request is not part of a transaction.
+	 */
+	private Control getTransactionControl(LdapNetworkConnection connection) {
+		if (transaction == null) {
+			if (!transactionRequested) {
+				return null;
+			}
+			transactionRequested = false;
+			if (isTransactionSupported(connection)) {
+				transaction = LdapTransaction.start(connection);
+			} else {
+				LOG.ok("Transactions are not supported by {0}, continuing without transaction", LdapUtil.formatConnectionInfo(connection));
+			}
+			if (transaction == null) {
+				return null;
+			}
+		}
+		if (transaction.getConnection() != connection) {
+			LOG.warn("Update request sent to {0} cannot be part of transaction started on {1}", 
+					LdapUtil.formatConnectionInfo(connection), LdapUtil.formatConnectionInfo(transaction.getConnection()));
+			return null;
+		}
+		return transaction.getControl();
+	}
+	
+	private boolean isInTransaction() {
+		return transaction != null || transactionRequested;
+	}
+	
+	private boolean isTransactionSupported(LdapNetworkConnection connection) {
+		String serverUrl = LdapUtil.formatConnectionInfo(connection);
+		Boolean supported = transactionSupport.get(serverUrl);
+		if (supported == null) {
+			supported = LdapTransaction.isSupported(connection);
+			transactionSupport.put(serverUrl, supported);
+		}
+		return supported;
+	}
+	
+	private void commitTransaction() {
+		if (transaction != null) {
+			LdapTransaction committedTransaction = transaction;
+			transaction = null;
+			committedTransaction.commit();
+		}
+	}
+	
+	/**
+	 * Prepares assertion control from the operation option (see AssertionControl).
+	 * The control is attached to the first request that updates the entry, i.e. it is evaluated
+	 * before the entry is changed. The following requests of the same update (e.g. modification
+	 * after rename or chunks of big modification) are sent without the control. The control is
+	 * not attached to the requests that update other entries, such as reciprocal group membership.
+	 * If the entry does not match the assertion then the update fails with PreconditionFailedException.
+	 */
+	private void prepareAssertion(OperationOptions options) {
+		if (options == null || options.getOptions() == null) {
+			return;
+		}
+		Object assertionFilter = options.getOptions().get(AssertionControl.OPERATION_OPTION_NAME);
+		if (assertionFilter != null) {
+			LOG.ok("Using assertion {0}", assertionFilter);
+			assertionControl = AssertionControl.create(assertionFilter.toString());
+		}
+	}
+	
+	private void clearAssertion() {
+		assertionControl = null;
+		assertionDn = null;
+	}
+	
+	/**
+	 * Returns assertion control for a request that updates the entry, null if there is none.
+	 * The control is still available for the next request until assertionApplied() is called.
+	 * Therefore it is sent again if the request fails and it is re-tried.
+	 */
+	private Control getAssertionControl(Dn dn) {
+		if (assertionControl != null && dn.equals(assertionDn)) {
+			return assertionControl;
+		}
+		return null;
+	}
+	
+	/**
+	 * The request with assertion control was successful. The following requests are sent without it.
+	 */
+	private void assertionApplied() {
+		assertionControl = null;
+	}
+	
+	/**
+	 * Aborts the transaction if it was not committed. E.g. if one of the requests failed.
+	 */
+	private void abortTransaction() {
+		transactionRequested = false;
+		if (transaction != null) {
+			LdapTransaction abortedTransaction = transaction;
+			transaction = null;
+			abortedTransaction.abort();
+		}
+	}
+	
+	private void ldapRename(ObjectClass objectClass, Uid uid, Dn newDn, OperationOptions options) {
+		Dn oldDn;
+		
+		if (getConfiguration().isUseUnsafeNameHint() && uid.getNameHint() != null) {
+			String dnHintString = uid.getNameHintValue();
+			oldDn = getSchemaTranslator().toDn(dnHintString);
+			LOG.ok("Using (unsafe) DN from the name hint: {0} for rename", oldDn);
+			try {
+				
+				ldapRenameAttempt(oldDn, newDn);
+				return;
+			
+			} catch (PreconditionFailedException e) {
+				// Entry was found, but it does not match the assertion. Trying again does not help.
+				throw e;
+			} catch (Throwable e) {
+				LOG.warn("Attempt to delete object with DN failed (DN taked from the name hint). The operation will continue with next attempt. Error: {0}",
+						e.getMessage(), e);
+			}
+		}
+		
+		oldDn = resolveDn(objectClass, uid, options);
+		LOG.ok("Resolved DN: {0}", oldDn);
+		
+		ldapRenameAttempt(oldDn, newDn);
+	}
+	
+	private void ldapRenameAttempt(final Dn oldDn, final Dn newDn) {
+		if (oldDn.equals(newDn)) {
+			// nothing to rename, just ignore
+			return;
+		}
+		// assertion (if any) is evaluated by the rename, it is the first request of the update
+		assertionDn = oldDn;
+		final Control assertion = getAssertionControl(oldDn);
+		WriteExecutor.Operation<ModifyDnResponse> operation = new WriteExecutor.Operation<ModifyDnResponse>() {
+			@Override
+			public ModifyDnResponse execute(LdapNetworkConnection connection) throws LdapException {
+				return ldapRenameAttempt(connection, oldDn, newDn, getTransactionControl(connection), assertion);
+			}
+		};
+		ModifyDnResponse modDnResponse;
+		try {
+			// Request that is part of a transaction or that has assertion is not sent again after a lost
+			// connection (see modifyRequest()). Missing old entry or existing new entry after a lost connection
+			// may be renamed by the previous attempt.
+			modDnResponse = writeExecutor.execute("MoveAndRename", oldDn, !isInTransaction() && assertion == null, operation,
+					ResultCodeEnum.NO_SUCH_OBJECT, ResultCodeEnum.ENTRY_ALREADY_EXISTS);
+		} catch (LdapException e) {
+			throw LdapUtil.processLdapException("Rename/move of LDAP entry from "+oldDn+" to "+newDn+" failed", e);
+		}
+		if (modDnResponse == null) {
+			// The entry might have been renamed (or created) by someone else
+			verifyRenamedEntry(oldDn, newDn);
+		} else if (modDnResponse.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
+			throw LdapUtil.processLdapResult("Rename/move of LDAP entry from "+oldDn+" to "+newDn+" failed", modDnResponse.getLdapResult());
+		}
+		if (assertion != null) {
+			assertionApplied();
+		}
+		getSchemaTranslator().getDnCache().invalidate(oldDn);
+	}
+	
+	/**
+	 * Rename with controls. Connection.moveAndRename() cannot send controls, therefore
+	 * the request is composed here. Make sure that DNs are created from the (user-provided) strings.
+	 * Otherwise the Directory API will convert it do OID=value notation. And some LDAP servers
+	 * (such as OpenDJ) does not handle that well. Null controls are skipped.
+	 */
+	private ModifyDnResponse ldapRenameAttempt(LdapNetworkConnection connection, Dn oldDn, Dn newDn, Control... controls) 
+			throws LdapException {
+		try {
+			ModifyDnRequest modDnRequest = new ModifyDnRequestImpl();
+			modDnRequest.setName(new Dn(oldDn.getName()));
+			modDnRequest.setNewRdn(new Rdn(newDn.getRdn().getName()));
+			modDnRequest.setNewSuperior(new Dn(newDn.getParent().getName()));
+			modDnRequest.setDeleteOldRdn(true);
+			for (Control control: controls) {
+				if (control != null) {
+					modDnRequest.addControl(control);
+				}
+			}
+			OperationLog.logOperationReq(connection, "MoveAndRename REQ {0} -> {1}, controls={2}", oldDn, newDn, 
+					LdapUtil.toShortString(modDnRequest.getControls()));
+			ModifyDnResponse modDnResponse = connection.modifyDn(modDnRequest);
+			OperationLog.logOperationRes(connection, "MoveAndRename RES {0} -> {1}: {2}", oldDn, newDn, modDnResponse.getLdapResult());
+			return modDnResponse;
+		} catch (LdapException e) {
+			OperationLog.logOperationErr(connection, "MoveAndRename ERROR {0} -> {1}: {2}", oldDn, newDn, e.getMessage(), e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Checks that the entry was renamed by the previous attempt, whose response was lost.
+	 * The entry must exist under the new DN and it must not exist under the old DN.
+	 */
+	private void verifyRenamedEntry(Dn oldDn, Dn newDn) {
+		boolean oldExists = entryExists(oldDn);
+		if (!entryExists(newDn)) {
+			throw new UnknownUidException("Rename/move of LDAP entry from "+oldDn+" to "+newDn+" failed after connection error: "
+					+(oldExists ? "the entry was not renamed" : "the entry does not exist"));
+		}
+		if (oldExists) {
+			throw new AlreadyExistsException("Rename/move of LDAP entry from "+oldDn+" to "+newDn+" failed after connection error: "
+					+"entry "+newDn+" already exists");
+		}
+		LOG.ok("Entry {0} was renamed to {1} by the previous attempt", oldDn, newDn);
+	}
+	
+	private boolean entryExists(Dn dn) {
+		try {
+			searchSingleEntry(connectionManager, dn, LdapUtil.createAllSearchFilter(), SearchScope.OBJECT, 
+					new String[]{ SchemaConstants.NO_ATTRIBUTE }, "entry "+dn);
+			return true;
+		} catch (UnknownUidException e) {
+			return false;
 		}
 	}
     
@@ -970,7 +1511,16 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 			}
 		}
 		
-		return ldapUpdate(objectClass, uid, null, valuesToAdd, options, ModificationOperation.ADD_ATTRIBUTE);
+		requestTransaction(objectClass, valuesToAdd, ModificationOperation.ADD_ATTRIBUTE);
+		try {
+			prepareAssertion(options);
+			Uid updatedUid = ldapUpdate(objectClass, uid, null, valuesToAdd, options, ModificationOperation.ADD_ATTRIBUTE);
+			commitTransaction();
+			return updatedUid;
+		} finally {
+			abortTransaction();
+			clearAssertion();
+		}
 	}
 
 	@Override
@@ -983,7 +1533,16 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 			}
 		}
 
-    	return ldapUpdate(objectClass, uid, null, valuesToRemove, options, ModificationOperation.REMOVE_ATTRIBUTE);
+		requestTransaction(objectClass, valuesToRemove, ModificationOperation.REMOVE_ATTRIBUTE);
+		try {
+			prepareAssertion(options);
+			Uid updatedUid = ldapUpdate(objectClass, uid, null, valuesToRemove, options, ModificationOperation.REMOVE_ATTRIBUTE);
+			commitTransaction();
+			return updatedUid;
+		} finally {
+			abortTransaction();
+			clearAssertion();
+		}
 	}
 	
 	private Uid ldapUpdate(ObjectClass icfObjectClass, Uid uid, Dn newDn, Set<Attribute> values,
@@ -1002,6 +1561,9 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 					
 					return ldapUpdateAttempt(icfObjectClass, uid, dn, values, options, modOp, ldapStructuralObjectClass);
 				
+				} catch (PreconditionFailedException e) {
+					// Entry was found, but it does not match the assertion. Trying again does not help.
+					throw e;
 				} catch (Throwable e) {
 					LOG.warn("Attempt to delete object with DN failed (DN taked from the name hint). The operation will continue with next attempt. Error: {0}",
 							e.getMessage(), e);
@@ -1019,6 +1581,27 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 	private Uid ldapUpdateAttempt(ObjectClass icfObjectClass, Uid uid, Dn dn, Set<Attribute> values,
 			OperationOptions options, ModificationOperation modOp, org.apache.directory.api.ldap.model.schema.ObjectClass ldapStructuralObjectClass) {
 		
+		List<Modification> modifications = createModifications(icfObjectClass, dn, values, modOp, ldapStructuralObjectClass);
+		
+		preUpdate(icfObjectClass, uid, values, options, modOp, dn, ldapStructuralObjectClass, modifications);
+		
+		if (modifications.isEmpty()) {
+			LOG.ok("Skipping modify({0}) operation as there are no modifications to execute", modOp);
+		} else {
+		
+			// assertion (if any) applies to this entry only
+			assertionDn = dn;
+			modify(dn, modifications);
+			
+			postUpdate(icfObjectClass, uid, values, options, modOp, dn, ldapStructuralObjectClass, modifications);
+			
+		}
+		
+		return getUidAfterUpdate(uid, dn, values);
+	}
+	
+	private List<Modification> createModifications(ObjectClass icfObjectClass, Dn dn, Set<Attribute> values,
+			ModificationOperation modOp, org.apache.directory.api.ldap.model.schema.ObjectClass ldapStructuralObjectClass) {
 		List<Modification> modifications = new ArrayList<Modification>(values.size());
 		for (Attribute icfAttr: values) {
 			if (icfAttr.is(Name.NAME)) {
@@ -1048,17 +1631,10 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 				addAttributeModification(dn, modifications, ldapStructuralObjectClass, icfObjectClass, icfAttr, modOp);
 			}
 		}
-		
-		if (modifications.isEmpty()) {
-			LOG.ok("Skipping modify({0}) operation as there are no modifications to execute", modOp);
-		} else {
-		
-			modify(dn, modifications);
-			
-			postUpdate(icfObjectClass, uid, values, options, modOp, dn, ldapStructuralObjectClass, modifications);
-			
-		}
-		
+		return modifications;
+	}
+	
+	private Uid getUidAfterUpdate(Uid uid, Dn dn, Set<Attribute> values) {
 		String uidAttributeName = configuration.getUidAttribute();
 		if (LdapUtil.isDnAttribute(uidAttributeName)) {
 			return new Uid(dn.toString());
@@ -1076,39 +1652,330 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		return returnUid;
 	}
 	
-	protected void modify(Dn dn, List<Modification> modifications) {
-		LdapNetworkConnection connection = connectionManager.getConnection(dn);
+	protected void modify(final Dn dn, final List<Modification> modifications) {
+		ModificationSplitter splitter = createModificationSplitter();
+		// Splitting needs current values of the entry. But the entry that was renamed in a transaction
+		// cannot be read by its new DN until the transaction is committed. Therefore the modifications
+		// in a transaction are sent as they are.
+		if (!isInTransaction() && splitter.needsSplitting(modifications)) {
+			modifyInChunks(dn, modifications, splitter);
+			return;
+		}
+		modifyRequest(dn, modifications, false);
+	}
+
+	/**
+	 * Sends the modifications in a single modify request. If outcomeUnknown is set then the previous
+	 * attempt to send the request ended without a response (see WriteExecutor.executeAgain()).
+	 */
+	private void modifyRequest(final Dn dn, final List<Modification> modifications, boolean outcomeUnknown) {
+		final Control assertion = getAssertionControl(dn);
+		WriteExecutor.Operation<ModifyResponse> operation = new WriteExecutor.Operation<ModifyResponse>() {
+			@Override
+			public ModifyResponse execute(LdapNetworkConnection connection) throws LdapException {
+				return ldapModifyAttempt(connection, dn, modifications, assertion);
+			}
+		};
+		ModifyResponse modifyResponse;
 		try {
-			PermissiveModify permissiveModifyControl = null;
-			if (isUsePermissiveModify()) {
-				permissiveModifyControl = new PermissiveModifyImpl();
+			// Request that is part of a transaction cannot be sent over another connection.
+			// Request with assertion is not sent again after a lost connection either. The previous
+			// attempt might have changed the entry, so the assertion would fail for the next attempt.
+			// Existing values to add (or missing values to delete) after a lost connection
+			// were changed by the previous attempt.
+			if (outcomeUnknown) {
+				modifyResponse = writeExecutor.executeAgain("Modify", dn, operation, 
+						ResultCodeEnum.ATTRIBUTE_OR_VALUE_EXISTS, ResultCodeEnum.NO_SUCH_ATTRIBUTE);
+			} else {
+				modifyResponse = writeExecutor.execute("Modify", dn, !isInTransaction() && assertion == null, operation, 
+						ResultCodeEnum.ATTRIBUTE_OR_VALUE_EXISTS, ResultCodeEnum.NO_SUCH_ATTRIBUTE);
 			}
-			if (LOG.isOk()) {
-				OperationLog.logOperationReq(connection, "Modify REQ {0}: {1}, control={2}", dn, dumpModifications(modifications), 
-						LdapUtil.toShortString(permissiveModifyControl));
+		} catch (LdapException e) {
+			throw processModifyResult(dn.toString(), modifications, e);
+		}
+		
+		if (modifyResponse == null) {
+			// The values might have been changed by someone else
+			verifyModifiedEntry(dn, modifications);
+		} else if (modifyResponse.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
+			throw processModifyResult(dn, modifications, modifyResponse);
+		}
+		if (assertion != null) {
+			assertionApplied();
+		}
+	}
+
+	/**
+	 * Checks that the modifications were applied by the previous attempt, whose response was lost.
+	 * The next attempt failed because the values to add already exist or the values to delete
+	 * are missing. That may also be caused by a different change made by someone else.
+	 * Therefore the values to add must be present and the values to delete must be absent.
+	 * Replace and increment cannot cause such failure, they are not checked. Neither is the password,
+	 * it cannot be read back.
+	 */
+	private void verifyModifiedEntry(Dn dn, List<Modification> modifications) {
+		Map<String, Set<String>> currentValuesByAttribute = new HashMap<>();
+		for (Modification modification: modifications) {
+			ModificationOperation operation = modification.getOperation();
+			org.apache.directory.api.ldap.model.entry.Attribute attribute = modification.getAttribute();
+			String attributeName = attribute.getUpId();
+			if ((operation != ModificationOperation.ADD_ATTRIBUTE && operation != ModificationOperation.REMOVE_ATTRIBUTE)
+					|| attributeName.equalsIgnoreCase(configuration.getPasswordAttribute())) {
+				continue;
 			}
-			ModifyRequest modRequest = new ModifyRequestImpl();
-			modRequest.setName(dn);
-			if (permissiveModifyControl != null) {
-				modRequest.addControl(permissiveModifyControl);
+			AttributeType attributeType = getSchemaManager().getAttributeType(attributeName);
+			Set<String> currentValues = currentValuesByAttribute.get(attributeName.toLowerCase());
+			if (currentValues == null) {
+				currentValues = new HashSet<>();
+				for (Value<?> currentValue: readAttributeValues(dn, attributeName)) {
+					currentValues.add(getComparisonKey(attributeType, currentValue));
+				}
+				currentValuesByAttribute.put(attributeName.toLowerCase(), currentValues);
+			}
+			if (operation == ModificationOperation.REMOVE_ATTRIBUTE && attribute.size() == 0) {
+				if (!currentValues.isEmpty()) {
+					throw new InvalidAttributeValueException("Modification of LDAP entry "+dn+" failed after connection error: attribute "
+							+attributeName+" was not removed");
+				}
+				continue;
 			}
-			// processModificationsBeforeUpdate must happen after logging. Otherwise passwords might be logged.
-			for (Modification mod: processModificationsBeforeUpdate(modifications)) {
-				modRequest.addModification(mod);
+			for (Value<?> value: attribute) {
+				boolean present = currentValues.contains(getComparisonKey(attributeType, value));
+				if (operation == ModificationOperation.ADD_ATTRIBUTE && !present) {
+					throw new InvalidAttributeValueException("Modification of LDAP entry "+dn+" failed after connection error: value "
+							+value+" was not added to "+attributeName);
+				}
+				if (operation == ModificationOperation.REMOVE_ATTRIBUTE && present) {
+					throw new InvalidAttributeValueException("Modification of LDAP entry "+dn+" failed after connection error: value "
+							+value+" was not removed from "+attributeName);
+				}
 			}
+		}
+		LOG.ok("Modification of {0} was applied by the previous attempt", dn);
+	}
+
+	private ModifyResponse ldapModifyAttempt(LdapNetworkConnection connection, Dn dn, List<Modification> modifications,
+			Control assertion) throws LdapException {
+		try {
+			ModifyRequest modRequest = createModifyRequest(connection, dn, modifications, assertion);
 			ModifyResponse modifyResponse = connection.modify(modRequest);
 			
 			if (LOG.isOk()) {
 				OperationLog.logOperationRes(connection, "Modify RES {0}: {1}", dn, modifyResponse.getLdapResult());
 			}
-			
-			if (modifyResponse.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
-				throw processModifyResult(dn, modifications, modifyResponse);
-			}
+			return modifyResponse;
 		} catch (LdapException e) {
 			OperationLog.logOperationErr(connection, "Modify ERROR {0}: {1}: {2}", dn, dumpModifications(modifications), e.getMessage(), e);
-			throw processModifyResult(dn.toString(), modifications, e);
+			throw e;
+		}
+	}
+
+	private ModificationSplitter createModificationSplitter() {
+		return new ModificationSplitter(configuration.getMaximumModificationValues(), configuration.getDeltaReplaceAttributes());
+	}
+
+	/**
+	 * Modification of attributes with huge number of values (e.g. members of a big group).
+	 * The modifications are split to several requests (see ModificationSplitter). The requests
+	 * are sent in order, one after another. The first request is sent on its own, it carries
+	 * the assertion control (if there is any).
+	 * Chunked modification is not atomic. Some requests may be applied even if other requests fail.
+	 */
+	private void modifyInChunks(final Dn dn, List<Modification> modifications, ModificationSplitter splitter) {
+		List<List<Modification>> requests = splitter.split(modifications, new ModificationSplitter.ValueDifference() {
+			@Override
+			public void compute(String attributeName, List<Value<?>> newValues, List<Value<?>> valuesToDelete, List<Value<?>> valuesToAdd) {
+				computeValueDifference(dn, attributeName, newValues, valuesToDelete, valuesToAdd);
+			}
+		});
+		if (requests.isEmpty()) {
+			LOG.ok("Skipping modification of {0}, all the values are already there", dn);
+			return;
+		}
+		modifyRequest(dn, requests.get(0), false);
+		List<List<Modification>> chunks = requests.subList(1, requests.size());
+		if (!chunks.isEmpty()) {
+			LOG.ok("Modification of {0} split into {1} more chunks of at most {2} values", dn, chunks.size(), 
+					configuration.getMaximumModificationValues());
+			modifyAll(Collections.nCopies(chunks.size(), dn), new ArrayList<>(chunks), true);
+		}
+	}
+
+	/**
+	 * Compares new values of the attribute with the values that are currently in the entry.
+	 * Values are compared in normalized form, as the server would compare them.
+	 */
+	private void computeValueDifference(Dn dn, String attributeName, List<Value<?>> newValues, 
+			List<Value<?>> valuesToDelete, List<Value<?>> valuesToAdd) {
+		AttributeType attributeType = getSchemaManager().getAttributeType(attributeName);
+		Map<String, Value<?>> currentValues = new LinkedHashMap<>();
+		for (Value<?> currentValue: readAttributeValues(dn, attributeName)) {
+			currentValues.put(getComparisonKey(attributeType, currentValue), currentValue);
+		}
+		for (Value<?> newValue: newValues) {
+			if (currentValues.remove(getComparisonKey(attributeType, newValue)) == null) {
+				valuesToAdd.add(newValue);
+			}
+		}
+		valuesToDelete.addAll(currentValues.values());
+		LOG.ok("Replace of {0} in {1}: {2} values to delete, {3} values to add", attributeName, dn, valuesToDelete.size(), valuesToAdd.size());
+	}
+
+	private String getComparisonKey(AttributeType attributeType, Value<?> value) {
+		if (!value.isHumanReadable()) {
+			return LdapUtil.binaryToHex(value.getBytes());
+		}
+		String stringValue = value.getString();
+		if (attributeType != null && attributeType.getEquality() != null && attributeType.getEquality().getNormalizer() != null) {
+			try {
+				return attributeType.getEquality().getNormalizer().normalize(stringValue);
+			} catch (LdapException e) {
+				LOG.ok("Cannot normalize value {0} of {1}: {2}", stringValue, attributeType.getName(), e.getMessage());
+			}
 		}
+		return stringValue;
+	}
+
+	/**
+	 * Reads all values of a single attribute. Active Directory returns only a range of values
+	 * for attributes that have many values (e.g. member;range=0-1499). In that case the rest
+	 * of the values is read in additional requests.
+	 */
+	protected List<Value<?>> readAttributeValues(Dn dn, String attributeName) {
+		LdapNetworkConnection connection = connectionManager.getConnection(dn);
+		List<Value<?>> values = new ArrayList<>();
+		String attributeToGet = attributeName;
+		while (attributeToGet != null) {
+			OperationLog.logOperationReq(connection, "Search REQ base={0}, filter={1}, scope={2}, attributes={3}",
+					dn, AbstractLdapConfiguration.SEARCH_FILTER_ALL, SearchScope.OBJECT, attributeToGet);
+			Entry entry;
+			try {
+				entry = connection.lookup(dn, attributeToGet);
+			} catch (LdapException e) {
+				OperationLog.logOperationErr(connection, "Search ERR {0}: {1}", e.getClass().getName(), e.getMessage(), e);
+				throw LdapUtil.processLdapException("Error reading attribute "+attributeToGet+" of "+dn, e);
+			}
+			if (entry == null) {
+				OperationLog.logOperationErr(connection, "Search ERR {0}: no such entry", dn);
+				throw new UnknownUidException("Entry "+dn+" was not found");
+			}
+			attributeToGet = null;
+			for (org.apache.directory.api.ldap.model.entry.Attribute attribute: entry) {
+				String[] idParts = attribute.getUpId().split(";");
+				if (!idParts[0].equalsIgnoreCase(attributeName)) {
+					continue;
+				}
+				for (Value<?> value: attribute) {
+					values.add(value);
+				}
+				for (int i = 1; i < idParts.length; i++) {
+					if (idParts[i].toLowerCase().startsWith("range=") && !idParts[i].endsWith("-*")) {
+						int high = Integer.parseInt(idParts[i].substring(idParts[i].indexOf('-') + 1));
+						attributeToGet = attributeName + ";range=" + (high + 1) + "-*";
+					}
+				}
+			}
+			OperationLog.logOperationRes(connection, "Search RES {0}: {1} values of {2}", dn, values.size(), attributeName);
+		}
+		return values;
+	}
+
+	/**
+	 * Creates modify request with the controls that are needed. Assertion control is attached
+	 * only if it is provided, see getAssertionControl().
+	 */
+	private ModifyRequest createModifyRequest(LdapNetworkConnection connection, Dn dn, List<Modification> modifications,
+			Control assertion) throws LdapException {
+		PermissiveModify permissiveModifyControl = null;
+		if (isUsePermissiveModify()) {
+			permissiveModifyControl = new PermissiveModifyImpl();
+		}
+		if (LOG.isOk()) {
+			OperationLog.logOperationReq(connection, "Modify REQ {0}: {1}, control={2}", dn, dumpModifications(modifications), 
+					LdapUtil.toShortString(permissiveModifyControl));
+		}
+		ModifyRequest modRequest = new ModifyRequestImpl();
+		modRequest.setName(dn);
+		if (permissiveModifyControl != null) {
+			modRequest.addControl(permissiveModifyControl);
+		}
+		Control transactionControl = getTransactionControl(connection);
+		if (transactionControl != null) {
+			modRequest.addControl(transactionControl);
+		}
+		if (assertion != null) {
+			modRequest.addControl(assertion);
+		}
+		// processModificationsBeforeUpdate must happen after logging. Otherwise passwords might be logged.
+		for (Modification mod: processModificationsBeforeUpdate(modifications)) {
+			modRequest.addModification(mod);
+		}
+		return modRequest;
+	}
+	
+	/**
+	 * Modifies many entries. The modify requests are pipelined (see RequestPipeline), therefore
+	 * this is much faster than calling modify() for every entry. All the entries are modified
+	 * even if some modifications fail. The failures are reported together at the end.
+	 */
+	protected void modifyAll(Map<Dn, List<Modification>> modificationsByDn) {
+		modifyAll(new ArrayList<>(modificationsByDn.keySet()), new ArrayList<>(modificationsByDn.values()), true);
+	}
+
+	/**
+	 * Same as above. But the same entry may be modified by several requests.
+	 * If preserveOrder is not set then these requests may be applied in any order.
+	 */
+	private void modifyAll(List<Dn> dns, List<List<Modification>> modificationsList, boolean preserveOrder) {
+		if (dns.isEmpty()) {
+			return;
+		}
+		Map<LdapNetworkConnection, RequestPipeline> pipelines = new LinkedHashMap<>();
+		for (int i = 0; i < dns.size(); i++) {
+			Dn dn = dns.get(i);
+			List<Modification> modifications = modificationsList.get(i);
+			LdapNetworkConnection connection = connectionManager.getConnection(dn);
+			RequestPipeline pipeline = getPipeline(pipelines, connection, preserveOrder);
+			try {
+				pipeline.modify(createModifyRequest(connection, dn, modifications, null), null);
+			} catch (LdapException e) {
+				throw processModifyResult(dn.toString(), modifications, e);
+			}
+		}
+		processPipelineFailures(pipelines, dns.size(), "modify");
+	}
+
+	/**
+	 * Finishes all the pipelines. Throws exception for the first failed request (if any).
+	 */
+	private void processPipelineFailures(Map<LdapNetworkConnection, RequestPipeline> pipelines, int requestCount, String operationName) {
+		List<RequestPipeline.Result> failures = new ArrayList<>();
+		for (RequestPipeline pipeline: pipelines.values()) {
+			failures.addAll(RequestPipeline.getFailures(pipeline.finish()));
+		}
+		if (failures.isEmpty()) {
+			return;
+		}
+		for (RequestPipeline.Result failure: failures) {
+			LOG.warn("Error in LDAP {0} of entry {1}", operationName, failure);
+		}
+		RequestPipeline.Result firstFailure = failures.get(0);
+		String message = "Error in " + failures.size() + " of " + requestCount + " LDAP " + operationName + " requests, first error in " + firstFailure.getDn();
+		if (firstFailure.getLdapResult() != null) {
+			throw LdapUtil.processLdapResult(message, firstFailure.getLdapResult());
+		} else {
+			throw LdapUtil.processLdapException(message, firstFailure.getException());
+		}
+	}
+
+	private RequestPipeline getPipeline(Map<LdapNetworkConnection, RequestPipeline> pipelines, LdapNetworkConnection connection,
+			boolean preserveOrder) {
+		RequestPipeline pipeline = pipelines.get(connection);
+		if (pipeline == null) {
+			pipeline = new RequestPipeline(connection, configuration, preserveOrder);
+			pipelines.put(connection, pipeline);
+		}
+		return pipeline;
 	}
 
 	protected RuntimeException processModifyResult(Dn dn, List<Modification> modifications, ModifyResponse modifyResponse) {
@@ -1138,6 +2005,16 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		}
 	}
 	
+	/**
+	 * Subclasses may add modifications here. They are sent in the same modify request
+	 * as the modifications of the attributes (i.e. atomically and in one round trip).
+	 */
+	protected void preUpdate(ObjectClass icfObjectClass, Uid uid, Set<Attribute> values,
+			OperationOptions options, ModificationOperation modOp, 
+			Dn dn, org.apache.directory.api.ldap.model.schema.ObjectClass ldapStructuralObjectClass, List<Modification> modifications) {
+		// Nothing to do here. Just for override in subclasses.
+	}
+	
 	protected void postUpdate(ObjectClass icfObjectClass, Uid uid, Set<Attribute> values,
 			OperationOptions options, ModificationOperation modOp, 
 			Dn dn, org.apache.directory.api.ldap.model.schema.ObjectClass ldapStructuralObjectClass, List<Modification> modifications) {
@@ -1263,6 +2140,8 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 	@Override
 	public void delete(ObjectClass objectClass, Uid uid, OperationOptions options) {
 		
+		boolean subtreeDelete = isSubtreeDelete(options);
+		
 		Dn dn;
 		if (getConfiguration().isUseUnsafeNameHint() && uid.getNameHint() != null) {
 			String dnHintString = uid.getNameHintValue();
@@ -1270,7 +2149,8 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 			LOG.ok("Using (unsafe) DN from the name hint: {0}", dn);
 			try {
 				
-				deleteAttempt(dn, uid);
+				deleteAttempt(dn, uid, subtreeDelete);
+				postDelete(objectClass, uid, dn);
 				
 				return;
 				
@@ -1283,21 +2163,397 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 		dn = resolveDn(objectClass, uid, options);
 		LOG.ok("Resolved DN: {0}", dn);
 		
-		deleteAttempt(dn, uid);
+		deleteAttempt(dn, uid, subtreeDelete);
+		postDelete(objectClass, uid, dn);
+	}
+	
+	private boolean isSubtreeDelete(OperationOptions options) {
+		if (options == null || options.getOptions() == null) {
+			return false;
+		}
+		Object subtreeDelete = options.getOptions().get(LdapConstants.OPERATION_OPTION_SUBTREE_DELETE);
+		return subtreeDelete != null && Boolean.parseBoolean(subtreeDelete.toString());
+	}
+	
+	protected void postDelete(ObjectClass objectClass, Uid uid, Dn dn) {
+		// Nothing to do here. Just for override in subclasses.
 	}
 		
-	private void deleteAttempt(Dn dn, Uid uid) {
-		LdapNetworkConnection connection = connectionManager.getConnection(dn);
-		
+	private void deleteAttempt(final Dn dn, Uid uid, boolean subtreeDelete) {
+		Control treeDeleteControl = null;
+		if (subtreeDelete) {
+			LdapNetworkConnection connection = connectionManager.getConnection(dn);
+			if (!isControlSupported(connection, LdapConstants.CONTROL_TREE_DELETE_OID)) {
+				LOG.ok("Server does not support tree delete control, deleting subtree of {0} entry by entry", dn);
+				deleteSubtreeLeafFirst(connection, dn);
+				getSchemaTranslator().getDnCache().invalidate(dn);
+				return;
+			}
+			// Directory API does not have this control. But it has no value, so opaque control will do.
+			BasicControlDecorator<Control> control = new BasicControlDecorator<Control>(LdapApiServiceFactory.getSingleton(),
+					new OpaqueControl(LdapConstants.CONTROL_TREE_DELETE_OID));
+			control.setCritical(true);
+			treeDeleteControl = control;
+		}
+		deleteEntry(dn, uid, treeDeleteControl, false);
+		getSchemaTranslator().getDnCache().invalidate(dn);
+	}
+	
+	/**
+	 * Deletes the entry. If outcomeUnknown is set then the previous attempt to delete
+	 * the entry ended without a response (see WriteExecutor.executeAgain()).
+	 */
+	private void deleteEntry(final Dn dn, Uid uid, final Control deleteControl, boolean outcomeUnknown) {
+		WriteExecutor.Operation<DeleteResponse> operation = new WriteExecutor.Operation<DeleteResponse>() {
+			@Override
+			public DeleteResponse execute(LdapNetworkConnection connection) throws LdapException {
+				return ldapDeleteAttempt(connection, dn, deleteControl);
+			}
+		};
+		boolean subtreeDelete = deleteControl != null;
+		try {
+			// Missing entry after a lost connection was deleted by the previous attempt
+			DeleteResponse deleteResponse;
+			if (outcomeUnknown) {
+				deleteResponse = writeExecutor.executeAgain("Delete", dn, operation, ResultCodeEnum.NO_SUCH_OBJECT);
+			} else {
+				deleteResponse = writeExecutor.execute("Delete", dn, true, operation, ResultCodeEnum.NO_SUCH_OBJECT);
+			}
+			
+			if (deleteResponse != null) {
+				// Same exceptions as connection.delete(dn) would throw
+				ResultCodeEnum.processResponse(deleteResponse);
+			}
+		} catch (LdapException e) {
+			throw LdapUtil.processLdapException("Failed to delete "+(subtreeDelete ? "subtree" : "entry")+" with DN "+dn+" (UID="+uid+")", e);
+		}
+	}
+	
+	private DeleteResponse ldapDeleteAttempt(LdapNetworkConnection connection, Dn dn, Control control) throws LdapException {
+		DeleteRequest deleteRequest = new DeleteRequestImpl();
+		deleteRequest.setName(dn);
+		if (control != null) {
+			deleteRequest.addControl(control);
+		}
 		try {
-			OperationLog.logOperationReq(connection, "Delete REQ {0}", dn);
+			OperationLog.logOperationReq(connection, "Delete REQ {0}, controls={1}", dn, LdapUtil.toShortString(deleteRequest.getControls()));
 			
-			connection.delete(dn);
+			DeleteResponse deleteResponse = connection.delete(deleteRequest);
 			
-			OperationLog.logOperationRes(connection, "Delete RES {0}", dn);
+			OperationLog.logOperationRes(connection, "Delete RES {0}: {1}", dn, deleteResponse.getLdapResult());
+			return deleteResponse;
 		} catch (LdapException e) {
 			OperationLog.logOperationErr(connection, "Delete ERROR {0}: {1}", dn, e.getMessage(), e);
-			throw LdapUtil.processLdapException("Failed to delete entry with DN "+dn+" (UID="+uid+")", e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Deletes the entry and all its descendants without the tree delete control.
+	 * The entries are deleted level by level, the deepest level first. All the entries
+	 * on one level are deleted at once (pipelined), they cannot depend on each other.
+	 * The deletion stops at the first level where any delete fails.
+	 */
+	private void deleteSubtreeLeafFirst(LdapNetworkConnection connection, Dn dn) {
+		Map<Integer, List<Dn>> dnsByDepth = new TreeMap<>(Collections.<Integer>reverseOrder());
+		for (Dn subtreeDn: searchSubtreeDns(connection, dn)) {
+			List<Dn> levelDns = dnsByDepth.get(subtreeDn.size());
+			if (levelDns == null) {
+				levelDns = new ArrayList<>();
+				dnsByDepth.put(subtreeDn.size(), levelDns);
+			}
+			levelDns.add(subtreeDn);
+		}
+		LOG.ok("Deleting {0} levels of subtree {1}", dnsByDepth.size(), dn);
+		for (List<Dn> levelDns: dnsByDepth.values()) {
+			deleteAll(levelDns);
+		}
+	}
+	
+	private void deleteAll(List<Dn> dns) {
+		Map<LdapNetworkConnection, RequestPipeline> pipelines = new LinkedHashMap<>();
+		for (Dn dn: dns) {
+			LdapNetworkConnection connection = connectionManager.getConnection(dn);
+			DeleteRequest deleteRequest = new DeleteRequestImpl();
+			deleteRequest.setName(dn);
+			getPipeline(pipelines, connection, false).delete(deleteRequest, null);
+		}
+		processPipelineFailures(pipelines, dns.size(), "delete");
+	}
+	
+	/**
+	 * Returns DNs of the entry and all its descendants. Paged results control is used
+	 * if the server supports it, so the server size limit does not apply.
+	 */
+	private List<Dn> searchSubtreeDns(LdapNetworkConnection connection, Dn baseDn) {
+		boolean paged = isControlSupported(connection, PagedResults.OID);
+		List<Dn> dns = new ArrayList<>();
+		byte[] cookie = null;
+		do {
+			SearchRequest searchReq = new SearchRequestImpl();
+			searchReq.setBase(baseDn);
+			searchReq.setFilter(LdapUtil.createAllSearchFilter());
+			searchReq.setScope(SearchScope.SUBTREE);
+			searchReq.addAttributes(SchemaConstants.NO_ATTRIBUTE);
+			searchReq.setDerefAliases(AliasDerefMode.NEVER_DEREF_ALIASES);
+			if (paged) {
+				PagedResults pagedResultsControl = new PagedResultsImpl();
+				pagedResultsControl.setCookie(cookie);
+				pagedResultsControl.setCritical(true);
+				pagedResultsControl.setSize(configuration.getPagingBlockSize());
+				searchReq.addControl(pagedResultsControl);
+			}
+			OperationLog.logOperationReq(connection, "Search REQ base={0}, scope=SUBTREE, attributes=1.1, paged={1}", baseDn, paged);
+			
+			SearchCursor cursor = null;
+			try {
+				cursor = connection.search(searchReq);
+				while (cursor.next()) {
+					Response response = cursor.get();
+					if (response instanceof SearchResultEntry) {
+						dns.add(((SearchResultEntry)response).getEntry().getDn());
+					}
+				}
+				cookie = null;
+				SearchResultDone searchResultDone = cursor.getSearchResultDone();
+				if (searchResultDone != null) {
+					LdapResult ldapResult = searchResultDone.getLdapResult();
+					OperationLog.logOperationRes(connection, "Search RES {0}: {1}", baseDn, ldapResult);
+					if (ldapResult.getResultCode() != ResultCodeEnum.SUCCESS) {
+						throw LdapUtil.processLdapResult("Error listing subtree of "+baseDn, ldapResult);
+					}
+					PagedResults pagedResultsResponseControl = (PagedResults)searchResultDone.getControl(PagedResults.OID);
+					if (pagedResultsResponseControl != null) {
+						cookie = pagedResultsResponseControl.getCookie();
+					}
+				}
+			} catch (LdapException e) {
+				OperationLog.logOperationErr(connection, "Search ERROR {0}: {1}", baseDn, e.getMessage(), e);
+				throw LdapUtil.processLdapException("Error listing subtree of "+baseDn, e);
+			} catch (CursorException e) {
+				OperationLog.logOperationErr(connection, "Search ERROR {0}: {1}", baseDn, e.getMessage(), e);
+				throw new ConnectorIOException("Error listing subtree of "+baseDn+": "+e.getMessage(), e);
+			} finally {
+				if (cursor != null) {
+					LdapUtil.closeCursor(cursor);
+				}
+			}
+		} while (cookie != null && cookie.length > 0);
+		return dns;
+	}
+	
+	/**
+	 * Executes many create, update and delete operations. This is meant for big batches,
+	 * e.g. initial load of many accounts. The LDAP requests are pipelined (see RequestPipeline),
+	 * at most maximumPipelinedOperations requests are outstanding on each connection.
+	 * Operations for the same entry (and its ancestors and descendants) are executed in the order
+	 * in which they are listed. Other operations may be executed in any order.
+	 * 
+	 * All the operations are executed even if some of them fail. The results are returned
+	 * in the same order as the requests.
+	 * 
+	 * Only the operations that are a single LDAP request without any special options are pipelined.
+	 * Other operations (rename, modification of attributes with too many values, updates with assertion,
+	 * subtree delete) are executed in the same way as ordinary ConnId operations, after all the pipelined
+	 * requests for the same entry are finished. Pipelined requests that fail because the connection
+	 * is lost are executed again (see WriteExecutor). 
+	 */
+	public List<BulkResult> executeBulk(List<BulkRequest> requests, OperationOptions options) {
+		BulkItem[] items = new BulkItem[requests.size()];
+		BulkResult[] results = new BulkResult[requests.size()];
+		Map<LdapNetworkConnection, RequestPipeline> pipelines = new LinkedHashMap<>();
+		for (int i = 0; i < requests.size(); i++) {
+			BulkRequest request = requests.get(i);
+			BulkItem item = new BulkItem(request, options);
+			items[i] = item;
+			try {
+				results[i] = submitBulkItem(item, i, pipelines);
+			} catch (RuntimeException e) {
+				LOG.ok("Bulk operation {0} failed: {1}", request, e.getMessage());
+				results[i] = BulkResult.failure(request, e);
+			}
+		}
+		for (RequestPipeline pipeline: pipelines.values()) {
+			for (RequestPipeline.Result pipelineResult: pipeline.finish()) {
+				int i = (Integer) pipelineResult.getTag();
+				try {
+					results[i] = completeBulkItem(items[i], pipelineResult);
+				} catch (RuntimeException e) {
+					LOG.ok("Bulk operation {0} failed: {1}", items[i].request, e.getMessage());
+					results[i] = BulkResult.failure(items[i].request, e);
+				}
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Sends the request to the pipeline. Returns null if the result is not yet known.
+	 */
+	private BulkResult submitBulkItem(BulkItem item, int index, Map<LdapNetworkConnection, RequestPipeline> pipelines) {
+		BulkRequest request = item.request;
+		if (request.getType() == BulkRequest.Type.CREATE) {
+			item.entry = prepareEntry(request.getObjectClass(), request.getAttributes());
+			item.dn = item.entry.getDn();
+			item.uid = getUidFromCreateAttributes(item.dn.getName(), request.getAttributes());
+			processEntryBeforeCreate(item.entry);
+			LdapNetworkConnection connection = connectionManager.getConnection(item.dn);
+			getPipeline(pipelines, connection, true).add(createAddRequest(connection, item.entry, item.uid == null), index);
+			return null;
+		}
+		
+		item.uid = request.getUid();
+		item.dn = resolveBulkDn(request.getObjectClass(), request.getUid(), item.options);
+		LdapNetworkConnection connection = connectionManager.getConnection(item.dn);
+		
+		if (request.getType() == BulkRequest.Type.DELETE) {
+			if (isSubtreeDelete(item.options)) {
+				waitForBulkRequests(pipelines, item.dn);
+				deleteAttempt(item.dn, item.uid, true);
+				postDelete(request.getObjectClass(), item.uid, item.dn);
+				return BulkResult.success(request, item.uid);
+			}
+			DeleteRequest deleteRequest = new DeleteRequestImpl();
+			deleteRequest.setName(item.dn);
+			getPipeline(pipelines, connection, true).delete(deleteRequest, index);
+			return null;
+		}
+		
+		item.modOp = getBulkModificationOperation(request.getType());
+		if (containsName(request.getAttributes()) || hasAssertion(item.options)) {
+			// More than one request or a request that cannot be re-tried. Execute it in the ordinary way.
+			waitForBulkRequests(pipelines, item.dn);
+			return BulkResult.success(request, executeBulkUpdate(request, item.options));
+		}
+		
+		item.ldapStructuralObjectClass = getSchemaTranslator().toLdapObjectClass(request.getObjectClass());
+		item.modifications = createModifications(request.getObjectClass(), item.dn, request.getAttributes(), item.modOp, item.ldapStructuralObjectClass);
+		preUpdate(request.getObjectClass(), item.uid, request.getAttributes(), item.options, item.modOp, item.dn, item.ldapStructuralObjectClass, item.modifications);
+		if (item.modifications.isEmpty()) {
+			return BulkResult.success(request, getUidAfterUpdate(item.uid, item.dn, request.getAttributes()));
+		}
+		if (createModificationSplitter().needsSplitting(item.modifications)) {
+			waitForBulkRequests(pipelines, item.dn);
+			modify(item.dn, item.modifications);
+			return completeBulkUpdate(item);
+		}
+		try {
+			getPipeline(pipelines, connection, true).modify(createModifyRequest(connection, item.dn, item.modifications, null), index);
+		} catch (LdapException e) {
+			throw processModifyResult(item.dn.toString(), item.modifications, e);
+		}
+		return null;
+	}
+	
+	private Uid executeBulkUpdate(BulkRequest request, OperationOptions options) {
+		switch (request.getType()) {
+			case ADD_ATTRIBUTE_VALUES:
+				return addAttributeValues(request.getObjectClass(), request.getUid(), request.getAttributes(), options);
+			case REMOVE_ATTRIBUTE_VALUES:
+				return removeAttributeValues(request.getObjectClass(), request.getUid(), request.getAttributes(), options);
+			default:
+				return update(request.getObjectClass(), request.getUid(), request.getAttributes(), options);
+		}
+	}
+	
+	/**
+	 * Processes the response of a pipelined request. The request that ended without a response
+	 * (e.g. the connection was lost) is executed again, it may have been applied already.
+	 */
+	private BulkResult completeBulkItem(BulkItem item, RequestPipeline.Result pipelineResult) {
+		BulkRequest request = item.request;
+		boolean outcomeUnknown = pipelineResult.getResponse() == null;
+		if (outcomeUnknown) {
+			LOG.warn("Bulk operation {0} ended without response, trying again: {1}", request, 
+					pipelineResult.getException() == null ? null : pipelineResult.getException().getMessage());
+		}
+		switch (request.getType()) {
+			case CREATE:
+				if (outcomeUnknown) {
+					return BulkResult.success(request, addEntry(item.entry, item.uid, true));
+				}
+				if (!pipelineResult.isSuccess()) {
+					throw processCreateResult(item.dn.getName(), (AddResponse) pipelineResult.getResponse());
+				}
+				if (item.uid != null) {
+					return BulkResult.success(request, item.uid);
+				}
+				return BulkResult.success(request, getUidOfCreatedEntry(item.entry, (AddResponse) pipelineResult.getResponse()));
+			case DELETE:
+				if (outcomeUnknown) {
+					deleteEntry(item.dn, item.uid, null, true);
+				} else if (!pipelineResult.isSuccess()) {
+					throw LdapUtil.processLdapResult("Failed to delete entry with DN "+item.dn+" (UID="+item.uid+")", pipelineResult.getLdapResult());
+				}
+				postDelete(request.getObjectClass(), item.uid, item.dn);
+				return BulkResult.success(request, item.uid);
+			default:
+				if (outcomeUnknown) {
+					modifyRequest(item.dn, item.modifications, true);
+				} else if (!pipelineResult.isSuccess()) {
+					throw processModifyResult(item.dn, item.modifications, (ModifyResponse) pipelineResult.getResponse());
+				}
+				return completeBulkUpdate(item);
+		}
+	}
+	
+	private BulkResult completeBulkUpdate(BulkItem item) {
+		BulkRequest request = item.request;
+		postUpdate(request.getObjectClass(), item.uid, request.getAttributes(), item.options, item.modOp, item.dn, 
+				item.ldapStructuralObjectClass, item.modifications);
+		return BulkResult.success(request, getUidAfterUpdate(item.uid, item.dn, request.getAttributes()));
+	}
+	
+	private Dn resolveBulkDn(ObjectClass objectClass, Uid uid, OperationOptions options) {
+		if (getConfiguration().isUseUnsafeNameHint() && uid.getNameHint() != null) {
+			Dn dn = getSchemaTranslator().toDn(uid.getNameHintValue());
+			LOG.ok("Using (unsafe) DN from the name hint: {0}", dn);
+			return dn;
+		}
+		return resolveDn(objectClass, uid, options);
+	}
+	
+	private boolean hasAssertion(OperationOptions options) {
+		return options != null && options.getOptions() != null 
+				&& options.getOptions().get(AssertionControl.OPERATION_OPTION_NAME) != null;
+	}
+	
+	private ModificationOperation getBulkModificationOperation(BulkRequest.Type type) {
+		switch (type) {
+			case ADD_ATTRIBUTE_VALUES:
+				return ModificationOperation.ADD_ATTRIBUTE;
+			case REMOVE_ATTRIBUTE_VALUES:
+				return ModificationOperation.REMOVE_ATTRIBUTE;
+			default:
+				return ModificationOperation.REPLACE_ATTRIBUTE;
+		}
+	}
+	
+	/**
+	 * Waits for the pipelined requests for the entry before the entry is changed synchronously.
+	 */
+	private void waitForBulkRequests(Map<LdapNetworkConnection, RequestPipeline> pipelines, Dn dn) {
+		for (RequestPipeline pipeline: pipelines.values()) {
+			pipeline.waitFor(dn);
+		}
+	}
+	
+	/**
+	 * State of one bulk operation between the request and the response.
+	 */
+	private static class BulkItem {
+		private final BulkRequest request;
+		private final OperationOptions options;
+		private Dn dn;
+		private Uid uid;
+		private Entry entry;
+		private ModificationOperation modOp;
+		private org.apache.directory.api.ldap.model.schema.ObjectClass ldapStructuralObjectClass;
+		private List<Modification> modifications;
+		
+		BulkItem(BulkRequest request, OperationOptions options) {
+			this.request = request;
+			this.options = options;
 		}
 	}
 	
@@ -1452,7 +2708,15 @@ public abstract class AbstractLdapConnector<C extends AbstractLdapConfiguration>
 				throw new ConnectorIOException(e.getMessage(), e);
 			}
             connectionManager = null;
+            writeExecutor = null;
+            if (sharedSchemaManager != null) {
+            	sharedSchemaManager.release();
+            	sharedSchemaManager = null;
+            }
             schemaManager = null;
+            if (schemaTranslator != null) {
+            	LOG.ok("DN cache statistics: {0}", schemaTranslator.getDnCache());
+            }
             schemaTranslator = null;
         } else {
         	LOG.ok("Not closing connection because connection manager is already null");
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+
+import org.apache.directory.api.ldap.codec.BasicControlDecorator;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+
+/**
+ * Assertion control (RFC 4528).
+ *
+ * The server applies the update only if the entry matches the filter in the control.
+ * Otherwise it returns assertionFailed result. This makes the check and the update atomic.
+ * If the update needs several requests (e.g. rename and modify) then only the first request
+ * carries the control. The check is atomic with that request only.
+ *
+ * The filter is taken from the operation option. It is an ordinary LDAP filter,
+ * e.g. (&(member=uid=foo,ou=people,dc=example,dc=com)(!(description=locked))).
+ * Substring and extensible match filters are not supported.
+ *
+ * Directory API does not have codec for this control. Therefore the filter is encoded here.
+ */
+public class AssertionControl {
+
+	public static final String OID = "1.3.6.1.1.12";
+
+	/**
+	 * Name of the operation option that contains the assertion filter.
+	 */
+	public static final String OPERATION_OPTION_NAME = "ldapAssertion";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int TAG_AND = 0xA0;
+	private static final int TAG_OR = 0xA1;
+	private static final int TAG_NOT = 0xA2;
+	private static final int TAG_EQUALITY_MATCH = 0xA3;
+	private static final int TAG_GREATER_OR_EQUAL = 0xA5;
+	private static final int TAG_LESS_OR_EQUAL = 0xA6;
+	private static final int TAG_PRESENT = 0x87;
+	private static final int TAG_APPROX_MATCH = 0xA8;
+
+	public static Control create(String filter) {
+		ExprNode filterNode;
+		try {
+			filterNode = FilterParser.parse(filter);
+		} catch (ParseException e) {
+			throw new InvalidAttributeValueException("Invalid assertion filter "+filter+": "+e.getMessage(), e);
+		}
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		writeFilter(value, filterNode, filter);
+		BasicControlDecorator<Control> control = new BasicControlDecorator<Control>(LdapApiServiceFactory.getSingleton(), new OpaqueControl(OID));
+		control.setCritical(true);
+		control.setValue(value.toByteArray());
+		return control;
+	}
+
+	private static void writeFilter(ByteArrayOutputStream out, ExprNode filterNode, String filter) {
+		if (filterNode instanceof AndNode) {
+			writeBranch(out, TAG_AND, (BranchNode)filterNode, filter);
+		} else if (filterNode instanceof OrNode) {
+			writeBranch(out, TAG_OR, (BranchNode)filterNode, filter);
+		} else if (filterNode instanceof NotNode) {
+			writeBranch(out, TAG_NOT, (BranchNode)filterNode, filter);
+		} else if (filterNode instanceof EqualityNode<?>) {
+			writeAssertion(out, TAG_EQUALITY_MATCH, (SimpleNode<?>)filterNode);
+		} else if (filterNode instanceof GreaterEqNode<?>) {
+			writeAssertion(out, TAG_GREATER_OR_EQUAL, (SimpleNode<?>)filterNode);
+		} else if (filterNode instanceof LessEqNode<?>) {
+			writeAssertion(out, TAG_LESS_OR_EQUAL, (SimpleNode<?>)filterNode);
+		} else if (filterNode instanceof ApproximateNode<?>) {
+			writeAssertion(out, TAG_APPROX_MATCH, (SimpleNode<?>)filterNode);
+		} else if (filterNode instanceof PresenceNode) {
+			BerUtil.writeTlv(out, TAG_PRESENT, ((PresenceNode)filterNode).getAttribute().getBytes(UTF8));
+		} else {
+			throw new InvalidAttributeValueException("Unsupported assertion filter "+filterNode+" in "+filter);
+		}
+	}
+
+	private static void writeBranch(ByteArrayOutputStream out, int tag, BranchNode filterNode, String filter) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (ExprNode child: filterNode.getChildren()) {
+			writeFilter(content, child, filter);
+		}
+		BerUtil.writeTlv(out, tag, content.toByteArray());
+	}
+
+	private static void writeAssertion(ByteArrayOutputStream out, int tag, SimpleNode<?> filterNode) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		BerUtil.writeTlv(content, BerUtil.TAG_OCTET_STRING, filterNode.getAttribute().getBytes(UTF8));
+		BerUtil.writeTlv(content, BerUtil.TAG_OCTET_STRING, filterNode.getValue().getBytes());
+		BerUtil.writeTlv(out, tag, content.toByteArray());
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Minimal BER encoding and decoding for the controls and extended operations
+ * that Directory API does not have codecs for (see PostReadControl, AssertionControl
+ * and LdapTransaction). Only definite lengths up to 3 bytes are supported.
+ */
+final class BerUtil {
+
+	static final int TAG_BOOLEAN = 0x01;
+	static final int TAG_OCTET_STRING = 0x04;
+	static final int TAG_SEQUENCE = 0x30;
+	static final int TAG_SET = 0x31;
+
+	private BerUtil() {
+	}
+
+	/**
+	 * Writes tag, length and content.
+	 */
+	static void writeTlv(ByteArrayOutputStream out, int tag, byte[] content) {
+		out.write(tag);
+		int length = content.length;
+		if (length < 0x80) {
+			out.write(length);
+		} else if (length <= 0xFF) {
+			out.write(0x81);
+			out.write(length);
+		} else if (length <= 0xFFFF) {
+			out.write(0x82);
+			out.write(length >> 8);
+			out.write(length);
+		} else {
+			out.write(0x83);
+			out.write(length >> 16);
+			out.write(length >> 8);
+			out.write(length);
+		}
+		out.write(content, 0, length);
+	}
+
+	/**
+	 * Reads the elements one after another. Malformed data are reported as IllegalArgumentException.
+	 */
+	static class Reader {
+
+		private final byte[] data;
+		private int pos;
+		private final int end;
+
+		Reader(byte[] data) {
+			this(data, 0, data.length);
+		}
+
+		private Reader(byte[] data, int start, int end) {
+			this.data = data;
+			this.pos = start;
+			this.end = end;
+		}
+
+		boolean hasMore() {
+			return pos < end;
+		}
+
+		/**
+		 * Reads constructed element with one of the expected tags. Returns reader of its content.
+		 */
+		Reader readConstructed(int... expectedTags) {
+			int length = readHeader(expectedTags);
+			Reader reader = new Reader(data, pos, pos + length);
+			pos += length;
+			return reader;
+		}
+
+		byte[] readPrimitive(int expectedTag) {
+			int length = readHeader(expectedTag);
+			byte[] content = new byte[length];
+			System.arraycopy(data, pos, content, 0, length);
+			pos += length;
+			return content;
+		}
+
+		private int readHeader(int... expectedTags) {
+			int tag = readByte();
+			boolean tagMatches = false;
+			for (int expectedTag: expectedTags) {
+				if (tag == expectedTag) {
+					tagMatches = true;
+				}
+			}
+			if (!tagMatches) {
+				throw new IllegalArgumentException("Unexpected BER tag 0x" + Integer.toHexString(tag) + " at position " + (pos - 1));
+			}
+			int length = readByte();
+			if ((length & 0x80) != 0) {
+				int numBytes = length & 0x7F;
+				if (numBytes == 0 || numBytes > 3) {
+					throw new IllegalArgumentException("Unsupported BER length encoding at position " + (pos - 1));
+				}
+				length = 0;
+				for (int i = 0; i < numBytes; i++) {
+					length = (length << 8) | readByte();
+				}
+			}
+			if (pos + length > end) {
+				throw new IllegalArgumentException("BER length " + length + " exceeds the data at position " + pos);
+			}
+			return length;
+		}
+
+		private int readByte() {
+			if (pos >= end) {
+				throw new IllegalArgumentException("Unexpected end of BER data");
+			}
+			return data[pos++] & 0xFF;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.util.Set;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * One operation in a bulk (see AbstractLdapConnector.executeBulk()).
+ * The operations have the same meaning as the corresponding ConnId operations.
+ */
+public class BulkRequest {
+
+	public enum Type {
+		CREATE, UPDATE, ADD_ATTRIBUTE_VALUES, REMOVE_ATTRIBUTE_VALUES, DELETE
+	}
+
+	private final Type type;
+	private final ObjectClass objectClass;
+	private final Uid uid;
+	private final Set<Attribute> attributes;
+
+	private BulkRequest(Type type, ObjectClass objectClass, Uid uid, Set<Attribute> attributes) {
+		super();
+		this.type = type;
+		this.objectClass = objectClass;
+		this.uid = uid;
+		this.attributes = attributes;
+	}
+
+	public static BulkRequest create(ObjectClass objectClass, Set<Attribute> createAttributes) {
+		return new BulkRequest(Type.CREATE, objectClass, null, createAttributes);
+	}
+
+	public static BulkRequest update(ObjectClass objectClass, Uid uid, Set<Attribute> replaceAttributes) {
+		return new BulkRequest(Type.UPDATE, objectClass, uid, replaceAttributes);
+	}
+
+	public static BulkRequest addAttributeValues(ObjectClass objectClass, Uid uid, Set<Attribute> valuesToAdd) {
+		return new BulkRequest(Type.ADD_ATTRIBUTE_VALUES, objectClass, uid, valuesToAdd);
+	}
+
+	public static BulkRequest removeAttributeValues(ObjectClass objectClass, Uid uid, Set<Attribute> valuesToRemove) {
+		return new BulkRequest(Type.REMOVE_ATTRIBUTE_VALUES, objectClass, uid, valuesToRemove);
+	}
+
+	public static BulkRequest delete(ObjectClass objectClass, Uid uid) {
+		return new BulkRequest(Type.DELETE, objectClass, uid, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public ObjectClass getObjectClass() {
+		return objectClass;
+	}
+
+	/**
+	 * UID of the object. Null for create.
+	 */
+	public Uid getUid() {
+		return uid;
+	}
+
+	/**
+	 * Attributes to create, replace, add or remove. Null for delete.
+	 */
+	public Set<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkRequest(" + type + " " + objectClass + (uid == null ? "" : " " + uid.getUidValue()) + ")";
+	}
+
+}
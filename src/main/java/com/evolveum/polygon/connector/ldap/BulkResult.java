@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Result of one operation in a bulk. There is either UID (the operation succeeded)
+ * or exception (the operation failed). The exception is the same exception that
+ * the corresponding ConnId operation would throw.
+ */
+public class BulkResult {
+
+	private final BulkRequest request;
+	private final Uid uid;
+	private final RuntimeException exception;
+
+	private BulkResult(BulkRequest request, Uid uid, RuntimeException exception) {
+		super();
+		this.request = request;
+		this.uid = uid;
+		this.exception = exception;
+	}
+
+	static BulkResult success(BulkRequest request, Uid uid) {
+		return new BulkResult(request, uid, null);
+	}
+
+	static BulkResult failure(BulkRequest request, RuntimeException exception) {
+		return new BulkResult(request, null, exception);
+	}
+
+	public BulkRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * UID of the object after the operation (it may be changed by update).
+	 */
+	public Uid getUid() {
+		return uid;
+	}
+
+	public RuntimeException getException() {
+		return exception;
+	}
+
+	public boolean isSuccess() {
+		return exception == null;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkResult(" + request + ": " + (exception == null ? "OK " + uid : exception.getMessage()) + ")";
+	}
+
+}
@@ -98,7 +98,10 @@ public class ConnectionManager<C extends AbstractLdapConfiguration> implements C
 		binaryAttributeDetector.setSchemaTranslator(schemaTranslator);
 	}
 
-	private LdapNetworkConnection getConnection(ServerDefinition server) {
+	/**
+	 * Returns connection to the specified server, connecting it if needed.
+	 */
+	public LdapNetworkConnection getConnection(ServerDefinition server) {
 		if (!server.isConnected()) {
 			connectServer(server);
 		}
@@ -138,6 +141,28 @@ public class ConnectionManager<C extends AbstractLdapConfiguration> implements C
 		return server.getConnection();
 	}
 	
+	/**
+	 * Returns connection to another server for the same base context (a peer of the failed server),
+	 * connecting it if needed. If there is no such server then the failed server is reconnected.
+	 */
+	public LdapNetworkConnection getConnectionFailover(Dn base, LdapNetworkConnection failedConnection) {
+		ServerDefinition failedServer = null;
+		for (ServerDefinition server: servers) {
+			if (server.getConnection() == failedConnection) {
+				failedServer = server;
+				break;
+			}
+		}
+		ServerDefinition server = selectServer(base, failedServer);
+		if (server == failedServer) {
+			LOG.ok("No other server for {0}, reconnecting", base);
+			connectServer(server);
+			return server.getConnection();
+		}
+		LOG.ok("Failing over to server {0} for {1}", server, base);
+		return getConnection(server);
+	}
+	
 	public LdapNetworkConnection getConnection(Dn base, Referral referral) {
 		return getConnection(base, getLdapUrl(referral));
 	}
@@ -162,18 +187,20 @@ public class ConnectionManager<C extends AbstractLdapConfiguration> implements C
 
 	public LdapNetworkConnection getConnection(Dn base, LdapUrl url) {
 		ServerDefinition server = selectServer(base, url);
-		if (!server.isConnected()) {
-			connectServer(server);
-		}
-		return server.getConnection();		
+		return getConnection(server);
 	}
 	
 	public LdapNetworkConnection getRandomConnection() {
 		ServerDefinition server = selectRandomServer();
-		if (!server.isConnected()) {
-			connectServer(server);
-		}
-		return server.getConnection();		
+		return getConnection(server);
+	}
+	
+	/**
+	 * Returns a snapshot of all the servers known to this connection manager.
+	 * The servers are not connected. Use getConnection(server) to connect them.
+	 */
+	public List<ServerDefinition> getServers() {
+		return new ArrayList<>(servers);
 	}
 	
 	public Iterable<LdapNetworkConnection> getAllConnections() {
@@ -208,6 +235,13 @@ public class ConnectionManager<C extends AbstractLdapConfiguration> implements C
 	}
 
 	private ServerDefinition selectServer(Dn dn) {
+		return selectServer(dn, (ServerDefinition)null);
+	}
+
+	/**
+	 * Selects server for the DN. The excluded server is selected only if there is no other choice.
+	 */
+	private ServerDefinition selectServer(Dn dn, ServerDefinition excludedServer) {
 		String stringDn = dn != null ? dn.getName() : null;
 		if (StringUtils.isBlank(stringDn) || !Character.isAlphabetic(stringDn.charAt(0))) {
 			// Do not even bother to choose. There are the strange
@@ -265,6 +299,13 @@ public class ConnectionManager<C extends AbstractLdapConfiguration> implements C
 			}
 		}
 		LOG.ok("SELECT: selected server list: {0}", selectedServers);
+		if (excludedServer != null && selectedServers.contains(excludedServer)) {
+			selectedServers.remove(excludedServer);
+			if (selectedServers.isEmpty()) {
+				LOG.ok("SELECT: selected excluded server {0} for {1}, there is no other choice", excludedServer.getHost(), dn);
+				return excludedServer;
+			}
+		}
 		ServerDefinition selectedServer = selectRandomItem(selectedServers);
 		if (selectedServer == null) {
 			LOG.ok("SELECT: selected default for {0}", dn);
@@ -37,7 +37,7 @@ public class ConnectorBinaryAttributeDetector<C extends AbstractLdapConfiguratio
 			// This is needed to fetch the schema
 			return false;
 		}
-		return schemaTranslator.isBinaryAttribute(attributeId);
+		return schemaTranslator.detectBinaryAttribute(attributeId);
 	}
 
 }
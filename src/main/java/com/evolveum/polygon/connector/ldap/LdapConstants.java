@@ -61,4 +61,11 @@ public class LdapConstants {
 	public static final String SYNTAX_AD_INTEGER8_SYNTAX = "1.2.840.113556.1.4.906";
 	public static final String SYNTAX_AD_SECURITY_DESCRIPTOR_SYNTAX = "1.2.840.113556.1.4.907";
 	
+	public static final String CONTROL_TREE_DELETE_OID = "1.2.840.113556.1.4.805";
+	
+	/**
+	 * Operation option for delete. If set to true then the entry is deleted together with all its descendants.
+	 */
+	public static final String OPERATION_OPTION_SUBTREE_DELETE = "ldapSubtreeDelete";
+	
 }
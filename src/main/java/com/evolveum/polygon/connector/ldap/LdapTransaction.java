@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.directory.api.ldap.codec.BasicControlDecorator;
+import org.apache.directory.api.ldap.codec.api.ExtendedResponseDecorator;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.ExtendedResponse;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * LDAP transaction (RFC 5805).
+ *
+ * The transaction is bound to one connection. Update requests that carry the transaction
+ * specification control (see getControl()) are not applied immediately. They are applied
+ * all at once when the transaction is committed. Or not at all.
+ *
+ * Directory API does not support transactions. Therefore the extended operations
+ * and the control are encoded here.
+ */
+public class LdapTransaction {
+
+	private static final Log LOG = Log.getLog(LdapTransaction.class);
+
+	public static final String START_TRANSACTION_OID = "1.3.6.1.1.21.1";
+	public static final String TRANSACTION_SPECIFICATION_CONTROL_OID = "1.3.6.1.1.21.2";
+	public static final String END_TRANSACTION_OID = "1.3.6.1.1.21.3";
+
+	private static final String ATTRIBUTE_SUPPORTED_EXTENSION_NAME = "supportedExtension";
+
+	private final LdapNetworkConnection connection;
+	private final byte[] identifier;
+
+	private LdapTransaction(LdapNetworkConnection connection, byte[] identifier) {
+		super();
+		this.connection = connection;
+		this.identifier = identifier;
+	}
+
+	public LdapNetworkConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Returns true if the server advertises the transaction extended operations in root DSE.
+	 */
+	public static boolean isSupported(LdapNetworkConnection connection) {
+		try {
+			Entry rootDse = connection.getRootDse(ATTRIBUTE_SUPPORTED_EXTENSION_NAME);
+			if (rootDse == null) {
+				return false;
+			}
+			Attribute supportedExtension = rootDse.get(ATTRIBUTE_SUPPORTED_EXTENSION_NAME);
+			return supportedExtension != null && supportedExtension.contains(START_TRANSACTION_OID)
+					&& supportedExtension.contains(END_TRANSACTION_OID);
+		} catch (LdapException e) {
+			LOG.ok("Cannot determine support for transactions: {0}", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Starts a new transaction. Returns null if the transaction cannot be started.
+	 * The caller is supposed to continue without a transaction in that case.
+	 */
+	public static LdapTransaction start(LdapNetworkConnection connection) {
+		OperationLog.logOperationReq(connection, "Extended REQ start transaction");
+		ExtendedResponse response;
+		try {
+			response = connection.extended(START_TRANSACTION_OID);
+		} catch (LdapException e) {
+			OperationLog.logOperationErr(connection, "Extended ERROR start transaction: {0}", e.getMessage(), e);
+			LOG.warn("Cannot start transaction, continuing without it: {0}", e.getMessage());
+			return null;
+		}
+		OperationLog.logOperationRes(connection, "Extended RES start transaction: {0}", response.getLdapResult());
+		if (response.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
+			LOG.warn("Cannot start transaction, continuing without it: {0}", LdapUtil.formatLdapMessage(response.getLdapResult()));
+			return null;
+		}
+		byte[] identifier = null;
+		if (response instanceof ExtendedResponseDecorator<?>) {
+			identifier = ((ExtendedResponseDecorator<?>)response).getResponseValue();
+		}
+		if (identifier == null || identifier.length == 0) {
+			LOG.warn("No transaction identifier in start transaction response, continuing without transaction");
+			return null;
+		}
+		return new LdapTransaction(connection, identifier);
+	}
+
+	/**
+	 * Transaction specification control. It has to be attached to every update request
+	 * that is part of the transaction.
+	 */
+	public Control getControl() {
+		BasicControlDecorator<Control> control = new BasicControlDecorator<Control>(LdapApiServiceFactory.getSingleton(),
+				new OpaqueControl(TRANSACTION_SPECIFICATION_CONTROL_OID));
+		control.setCritical(true);
+		control.setValue(identifier);
+		return control;
+	}
+
+	public void commit() {
+		ExtendedResponse response;
+		try {
+			response = end(true);
+		} catch (LdapException e) {
+			OperationLog.logOperationErr(connection, "Extended ERROR commit transaction: {0}", e.getMessage(), e);
+			throw LdapUtil.processLdapException("Error committing LDAP transaction", e);
+		}
+		OperationLog.logOperationRes(connection, "Extended RES commit transaction: {0}", response.getLdapResult());
+		if (response.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
+			throw LdapUtil.processLdapResult("Error committing LDAP transaction", response.getLdapResult());
+		}
+	}
+
+	/**
+	 * Aborts the transaction. Errors are only logged. The server aborts the transaction
+	 * anyway when the connection is closed.
+	 */
+	public void abort() {
+		try {
+			ExtendedResponse response = end(false);
+			OperationLog.logOperationRes(connection, "Extended RES abort transaction: {0}", response.getLdapResult());
+		} catch (LdapException e) {
+			OperationLog.logOperationErr(connection, "Extended ERROR abort transaction: {0}", e.getMessage(), e);
+			LOG.warn("Error aborting LDAP transaction: {0}", e.getMessage());
+		}
+	}
+
+	private ExtendedResponse end(boolean commit) throws LdapException {
+		OperationLog.logOperationReq(connection, "Extended REQ {0} transaction", commit ? "commit" : "abort");
+		return connection.extended(END_TRANSACTION_OID, encodeEndRequestValue(identifier, commit));
+	}
+
+	/**
+	 * Encodes value of the end transaction request (txnEndReq).
+	 */
+	static byte[] encodeEndRequestValue(byte[] identifier, boolean commit) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		if (!commit) {
+			// commit is TRUE by default, DER does not allow default value to be encoded
+			BerUtil.writeTlv(content, BerUtil.TAG_BOOLEAN, new byte[] { 0x00 });
+		}
+		BerUtil.writeTlv(content, BerUtil.TAG_OCTET_STRING, identifier);
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		BerUtil.writeTlv(value, BerUtil.TAG_SEQUENCE, content.toByteArray());
+		return value.toByteArray();
+	}
+
+}
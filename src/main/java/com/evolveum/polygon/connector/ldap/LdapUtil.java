@@ -16,8 +16,14 @@
 package com.evolveum.polygon.connector.ldap;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -76,6 +82,8 @@ import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.apache.directory.ldap.client.api.exception.InvalidConnectionException;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedByteArray;
+import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
 import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
@@ -84,10 +92,12 @@ import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
 import org.identityconnectors.framework.common.exceptions.ConnectorSecurityException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
 import org.identityconnectors.framework.common.exceptions.PermissionDeniedException;
+import org.identityconnectors.framework.common.exceptions.PreconditionFailedException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.spi.ConfigurationProperty;
 
 import com.evolveum.polygon.connector.ldap.schema.AbstractSchemaTranslator;
 
@@ -98,6 +108,11 @@ import com.evolveum.polygon.connector.ldap.schema.AbstractSchemaTranslator;
 public class LdapUtil {
 	
 	private static final Log LOG = Log.getLog(LdapUtil.class);
+
+	/**
+	 * assertionFailed (RFC 4528)
+	 */
+	private static final int RESULT_CODE_ASSERTION_FAILED = 122;
 	
 	public static boolean isDnAttribute(String attributeName) {
 		return LdapConfiguration.PSEUDO_ATTRIBUTE_DN_NAME.equals(attributeName);
@@ -407,6 +422,9 @@ public class LdapUtil {
 			re = new InvalidAttributeValueException(message + exceptionMessage, ldapException);
 		} else if (ldapException instanceof LdapUnwillingToPerformException) {
 			re = new PermissionDeniedException(message + exceptionMessage, ldapException);
+		} else if (ldapException instanceof LdapOperationException 
+				&& ((LdapOperationException)ldapException).getResultCode().getResultCode() == RESULT_CODE_ASSERTION_FAILED) {
+			re = new PreconditionFailedException(message + exceptionMessage, ldapException);
 		} else {
 			re = new ConnectorIOException(message + exceptionMessage, ldapException);
 		}
@@ -426,6 +444,11 @@ public class LdapUtil {
 	
 	public static RuntimeException processLdapResult(String message, LdapResult ldapResult) {
 		ResultCodeEnum resultCode = ldapResult.getResultCode();
+		if (resultCode.getResultCode() == RESULT_CODE_ASSERTION_FAILED) {
+			// Update with assertion control, the entry does not match the assertion
+			LOG.ok("Operation \"{0}\" ended with failed assertion: {1}", message, ldapResult.getDiagnosticMessage());
+			return new PreconditionFailedException(message + ": " + formatLdapMessage(ldapResult));
+		}
 		RuntimeException re;
 		switch (resultCode) {
 		    case SUCCESS :
@@ -501,6 +524,104 @@ public class LdapUtil {
 				": " + ldapResult.getDiagnosticMessage().replaceAll("\\p{C}", "?") + " ("+ ldapResult.getResultCode().getResultCode()+")";
 	}
 
+	/**
+	 * Returns fingerprint (SHA-1 in hex) of all the configuration properties except for the credentials.
+	 * Connector instances with the same fingerprint talk to the same servers in the same way.
+	 * Returns null if the fingerprint cannot be computed.
+	 */
+	public static String getConfigurationFingerprint(AbstractLdapConfiguration configuration) {
+		Method[] methods = configuration.getClass().getMethods();
+		Arrays.sort(methods, new Comparator<Method>() {
+			@Override
+			public int compare(Method a, Method b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		sb.append(configuration.getClass().getName());
+		sb.append(";").append(LdapUtil.class.getPackage().getImplementationVersion());
+		for (Method method: methods) {
+			if (method.getAnnotation(ConfigurationProperty.class) == null || method.getParameterTypes().length != 0) {
+				continue;
+			}
+			Class<?> type = method.getReturnType();
+			if (GuardedString.class.equals(type) || GuardedByteArray.class.equals(type)) {
+				continue;
+			}
+			Object value;
+			try {
+				value = method.invoke(configuration);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				LOG.warn("Cannot get value of configuration property {0}: {1}", method.getName(), e.getMessage());
+				return null;
+			}
+			sb.append(";").append(method.getName()).append("=");
+			if (value instanceof Object[]) {
+				sb.append(Arrays.toString((Object[])value));
+			} else {
+				sb.append(value);
+			}
+		}
+		return hash(sb.toString());
+	}
+	
+	/**
+	 * Returns SHA-1 hash of the string (in hex). Returns null if the hash cannot be computed.
+	 */
+	public static String hash(String string) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(string.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b: hash) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			LOG.warn("Cannot compute hash: {0}", e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads modifyTimestamp of the subschema subentry. The timestamp changes when the schema changes.
+	 * Returns null if the timestamp cannot be determined.
+	 * Throws InvalidConnectionException if the connection is broken, so the caller can reconnect.
+	 */
+	public static String readSchemaTimestamp(LdapNetworkConnection connection) throws InvalidConnectionException {
+		try {
+			Entry rootDse = connection.getRootDse(SchemaConstants.SUBSCHEMA_SUBENTRY_AT);
+			if (rootDse == null) {
+				return null;
+			}
+			Attribute subschemaSubentryAttribute = rootDse.get(SchemaConstants.SUBSCHEMA_SUBENTRY_AT);
+			if (subschemaSubentryAttribute == null) {
+				LOG.ok("No {0} in root DSE, cannot determine schema timestamp", SchemaConstants.SUBSCHEMA_SUBENTRY_AT);
+				return null;
+			}
+			Entry subschemaSubentry = connection.lookup(new Dn(subschemaSubentryAttribute.getString()),
+					SchemaConstants.MODIFY_TIMESTAMP_AT);
+			if (subschemaSubentry == null) {
+				return null;
+			}
+			Attribute modifyTimestampAttribute = subschemaSubentry.get(SchemaConstants.MODIFY_TIMESTAMP_AT);
+			if (modifyTimestampAttribute == null) {
+				LOG.ok("No {0} in subschema subentry {1}, cannot determine schema timestamp",
+						SchemaConstants.MODIFY_TIMESTAMP_AT, subschemaSubentryAttribute.getString());
+				return null;
+			}
+			return modifyTimestampAttribute.getString();
+		} catch (InvalidConnectionException e) {
+			throw e;
+		} catch (LdapException e) {
+			if (e.getCause() instanceof InvalidConnectionException) {
+				throw (InvalidConnectionException)e.getCause();
+			}
+			LOG.warn("Cannot read schema timestamp: {0}", e.getMessage());
+			return null;
+		}
+	}
+	
 	public static Entry getRootDse(ConnectionManager<? extends AbstractLdapConfiguration> connectionManager, String... attributesToGet) {
 		try {
 			return connectionManager.getDefaultConnection().getRootDse(attributesToGet);
@@ -722,17 +843,19 @@ public class LdapUtil {
 		// We have two non-schema-aware DNs here. So simple upper.isAncestorOf(lower) will
 		// not really do because there may be DN capitalization issues. So just we need to
 		// create schema-aware versions and compare these.
+		// The schema-aware versions are cached, this is invoked for every server on every
+		// server selection.
 		
 		Dn upperSA;
 		try {
-			upperSA = new Dn(schemaTranslator.getSchemaManager(), upper.toString());
+			upperSA = schemaTranslator.getDnCache().getSchemaAwareDn(upper.toString());
 		} catch (LdapInvalidDnException e) {
 			throw new InvalidAttributeValueException("Invalid DN: " + upper.toString() + ": " + e.getMessage(), e);
 		}
 
 		Dn lowerSA;
 		try {
-			lowerSA = new Dn(schemaTranslator.getSchemaManager(), lower.toString());
+			lowerSA = schemaTranslator.getDnCache().getSchemaAwareDn(lower.toString());
 		} catch (LdapInvalidDnException e) {
 			throw new InvalidAttributeValueException("Invalid DN: " + lower.toString() + ": " + e.getMessage(), e);
 		}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+
+/**
+ * Splits modifications of attributes with huge number of values (e.g. members of a big group)
+ * to several modify requests.
+ *
+ * The values are split to chunks of at most maximumValues values. Replace cannot be split,
+ * therefore it is converted to delete and add of the values that differ from the current values
+ * of the attribute. The same conversion is used for replace of deltaReplaceAttributes. If the
+ * difference is small enough then it is sent in a single request together with the other
+ * modifications.
+ *
+ * The requests are returned in the order in which they have to be sent. The first request contains
+ * all the modifications that are not split. If there are no such modifications then the first
+ * request is the first chunk. Values are added before the other values are deleted. Otherwise
+ * the attribute might be left without any value for a while, which is a schema violation for
+ * mandatory attributes (e.g. member of groupOfNames).
+ */
+class ModificationSplitter {
+
+	/**
+	 * Computes the difference between new values of the attribute and its current values.
+	 */
+	interface ValueDifference {
+		void compute(String attributeName, List<Value<?>> newValues, List<Value<?>> valuesToDelete, List<Value<?>> valuesToAdd);
+	}
+
+	private final int maximumValues;
+	private final String[] deltaReplaceAttributes;
+
+	ModificationSplitter(int maximumValues, String[] deltaReplaceAttributes) {
+		super();
+		this.maximumValues = maximumValues;
+		this.deltaReplaceAttributes = deltaReplaceAttributes;
+	}
+
+	/**
+	 * Returns true if the modifications cannot be sent as they are.
+	 */
+	boolean needsSplitting(List<Modification> modifications) {
+		for (Modification modification: modifications) {
+			if (isTooLarge(modification.getAttribute()) || isDeltaReplace(modification)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the modify requests in the order in which they have to be sent.
+	 * The list is empty if there is nothing to modify.
+	 */
+	List<List<Modification>> split(List<Modification> modifications, ValueDifference valueDifference) {
+		List<Modification> smallModifications = new ArrayList<>();
+		List<List<Modification>> chunks = new ArrayList<>();
+		List<List<Modification>> deleteChunks = new ArrayList<>();
+		for (Modification modification: modifications) {
+			org.apache.directory.api.ldap.model.entry.Attribute attribute = modification.getAttribute();
+			if (!isTooLarge(attribute) && !isDeltaReplace(modification)) {
+				smallModifications.add(modification);
+				continue;
+			}
+			List<Value<?>> newValues = new ArrayList<>(attribute.size());
+			for (Value<?> value: attribute) {
+				newValues.add(value);
+			}
+			if (modification.getOperation() == ModificationOperation.REPLACE_ATTRIBUTE) {
+				List<Value<?>> valuesToDelete = new ArrayList<>();
+				List<Value<?>> valuesToAdd = new ArrayList<>();
+				valueDifference.compute(attribute.getUpId(), newValues, valuesToDelete, valuesToAdd);
+				if (!isTooLarge(valuesToDelete.size() + valuesToAdd.size())) {
+					if (!valuesToDelete.isEmpty()) {
+						smallModifications.add(new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, attribute.getUpId(),
+								valuesToDelete.toArray(new Value[valuesToDelete.size()])));
+					}
+					if (!valuesToAdd.isEmpty()) {
+						smallModifications.add(new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, attribute.getUpId(),
+								valuesToAdd.toArray(new Value[valuesToAdd.size()])));
+					}
+					continue;
+				}
+				addChunks(chunks, ModificationOperation.ADD_ATTRIBUTE, attribute.getUpId(), valuesToAdd);
+				addChunks(deleteChunks, ModificationOperation.REMOVE_ATTRIBUTE, attribute.getUpId(), valuesToDelete);
+			} else {
+				addChunks(chunks, modification.getOperation(), attribute.getUpId(), newValues);
+			}
+		}
+		List<List<Modification>> requests = new ArrayList<>(chunks.size() + deleteChunks.size() + 1);
+		if (!smallModifications.isEmpty()) {
+			requests.add(smallModifications);
+		}
+		requests.addAll(chunks);
+		// Values of replaced attributes are deleted after all the values are added
+		requests.addAll(deleteChunks);
+		return requests;
+	}
+
+	private void addChunks(List<List<Modification>> chunks, ModificationOperation operation, String attributeId,
+			List<Value<?>> values) {
+		for (int start = 0; start < values.size(); start += maximumValues) {
+			List<Value<?>> chunkValues = values.subList(start, Math.min(start + maximumValues, values.size()));
+			Modification chunk = new DefaultModification(operation, attributeId, chunkValues.toArray(new Value[chunkValues.size()]));
+			chunks.add(Collections.singletonList(chunk));
+		}
+	}
+
+	private boolean isTooLarge(org.apache.directory.api.ldap.model.entry.Attribute attribute) {
+		return attribute != null && isTooLarge(attribute.size());
+	}
+
+	private boolean isTooLarge(int numberOfValues) {
+		return maximumValues > 0 && numberOfValues > maximumValues;
+	}
+
+	/**
+	 * Returns true if the modification replaces values of an attribute that is configured
+	 * in deltaReplaceAttributes. Replace with no values (removal of the attribute) is sent as it is.
+	 */
+	private boolean isDeltaReplace(Modification modification) {
+		if (modification.getOperation() != ModificationOperation.REPLACE_ATTRIBUTE) {
+			return false;
+		}
+		org.apache.directory.api.ldap.model.entry.Attribute attribute = modification.getAttribute();
+		if (attribute == null || attribute.size() == 0) {
+			return false;
+		}
+		if (deltaReplaceAttributes == null) {
+			return false;
+		}
+		for (String deltaReplaceAttribute: deltaReplaceAttributes) {
+			if (deltaReplaceAttribute.equalsIgnoreCase(attribute.getUpId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.BasicControlDecorator;
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Post-Read control (RFC 4527).
+ *
+ * The server returns the entry as it is after the operation in the response control.
+ * This can be used to get server-generated attributes (such as entryUUID) without
+ * reading the entry again.
+ *
+ * Directory API does not have codec for this control. Therefore the control value
+ * is encoded and decoded here (see BerUtil). It is simple enough.
+ */
+public class PostReadControl {
+
+	private static final Log LOG = Log.getLog(PostReadControl.class);
+
+	public static final String OID = "1.3.6.1.1.13.2";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int TAG_SEARCH_RESULT_ENTRY = 0x64;
+
+	/**
+	 * Creates request control that asks for the specified attributes.
+	 */
+	public static Control createRequest(String... attributeNames) {
+		ByteArrayOutputStream attributeSelection = new ByteArrayOutputStream();
+		for (String attributeName: attributeNames) {
+			BerUtil.writeTlv(attributeSelection, BerUtil.TAG_OCTET_STRING, attributeName.getBytes(UTF8));
+		}
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		BerUtil.writeTlv(value, BerUtil.TAG_SEQUENCE, attributeSelection.toByteArray());
+		BasicControlDecorator<Control> control = new BasicControlDecorator<Control>(LdapApiServiceFactory.getSingleton(), new OpaqueControl(OID));
+		control.setCritical(false);
+		control.setValue(value.toByteArray());
+		return control;
+	}
+
+	/**
+	 * Returns values of the attribute from the response control.
+	 * Returns null if the control cannot be parsed or if it does not contain the attribute.
+	 */
+	public static List<byte[]> getAttributeValues(Control responseControl, String attributeName) {
+		byte[] value = getControlValue(responseControl);
+		if (value == null) {
+			return null;
+		}
+		try {
+			BerUtil.Reader entryReader = new BerUtil.Reader(value).readConstructed(TAG_SEARCH_RESULT_ENTRY, BerUtil.TAG_SEQUENCE);
+			// DN, we do not need that
+			entryReader.readPrimitive(BerUtil.TAG_OCTET_STRING);
+			BerUtil.Reader attributesReader = entryReader.readConstructed(BerUtil.TAG_SEQUENCE);
+			while (attributesReader.hasMore()) {
+				BerUtil.Reader attributeReader = attributesReader.readConstructed(BerUtil.TAG_SEQUENCE);
+				String type = new String(attributeReader.readPrimitive(BerUtil.TAG_OCTET_STRING), UTF8);
+				if (!type.equalsIgnoreCase(attributeName)) {
+					continue;
+				}
+				BerUtil.Reader valuesReader = attributeReader.readConstructed(BerUtil.TAG_SET);
+				List<byte[]> values = new ArrayList<>();
+				while (valuesReader.hasMore()) {
+					values.add(valuesReader.readPrimitive(BerUtil.TAG_OCTET_STRING));
+				}
+				return values;
+			}
+			return null;
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Cannot parse post-read control: {0}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static byte[] getControlValue(Control control) {
+		if (control instanceof CodecControl<?>) {
+			byte[] value = ((CodecControl<?>)control).getValue();
+			if (value != null) {
+				return value;
+			}
+		}
+		if (control instanceof OpaqueControl) {
+			return ((OpaqueControl)control).getEncodedValue();
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.future.ResponseFuture;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Sends add, modify and delete requests over one connection without waiting for each response.
+ *
+ * At most maxOutstanding requests wait for their response at any time. When the limit
+ * is reached, the pipeline waits for the oldest response before it sends the next request.
+ * Requests that fail because the server is busy or unavailable are sent again. The number of attempts
+ * and the pause before each attempt are the same as for other write operations (see WriteExecutor).
+ * The pipeline does not send any other request during the pause, the server is busy anyway.
+ * All the requests are sent even if some of them fail. The results are returned by finish().
+ *
+ * LDAP server may process pipelined requests in any order. If preserveOrder is set then
+ * the pipeline waits for the outstanding requests for the same entry (and its ancestors
+ * and descendants) before it sends the next request for that entry. E.g. a child entry is
+ * never added before its parent and an entry is never deleted before it is modified.
+ *
+ * Each request may have a tag. The tag is returned in the result, so the caller can match
+ * the results to the requests.
+ *
+ * The pipeline is not thread-safe. It is supposed to be used by one operation.
+ */
+public class RequestPipeline {
+
+	private static final Log LOG = Log.getLog(RequestPipeline.class);
+
+	private final LdapNetworkConnection connection;
+	private final int maxOutstanding;
+	private final boolean preserveOrder;
+	private final int maxAttempts;
+	private final long retryBackoffInterval;
+	private final long timeout;
+	private final LinkedList<PendingRequest> outstanding = new LinkedList<>();
+	private final List<Result> results = new ArrayList<>();
+	private int requestCount = 0;
+	private int failureCount = 0;
+
+	public RequestPipeline(LdapNetworkConnection connection, AbstractLdapConfiguration configuration, boolean preserveOrder) {
+		super();
+		this.connection = connection;
+		this.maxOutstanding = Math.max(configuration.getMaximumPipelinedOperations(), 1);
+		this.preserveOrder = preserveOrder;
+		this.maxAttempts = Math.max(configuration.getMaximumNumberOfAttempts(), 1);
+		this.retryBackoffInterval = configuration.getRetryBackoffInterval();
+		this.timeout = connection.getConfig().getTimeout();
+	}
+
+	public void add(AddRequest addRequest, Object tag) {
+		submit(new PendingRequest(addRequest, addRequest.getEntryDn(), tag));
+	}
+
+	public void modify(ModifyRequest modRequest, Object tag) {
+		submit(new PendingRequest(modRequest, modRequest.getName(), tag));
+	}
+
+	public void delete(DeleteRequest deleteRequest, Object tag) {
+		submit(new PendingRequest(deleteRequest, deleteRequest.getName(), tag));
+	}
+
+	/**
+	 * Waits for all the outstanding requests for the entry, its ancestors and descendants.
+	 * This has to be called before the entry is changed by other means than this pipeline.
+	 */
+	public void waitFor(Dn dn) {
+		PendingRequest related = findRelated(dn);
+		while (related != null) {
+			outstanding.remove(related);
+			processResponse(related);
+			related = findRelated(dn);
+		}
+	}
+
+	/**
+	 * Waits for all the outstanding responses. Returns results of all the requests
+	 * (in the order in which the responses were processed).
+	 */
+	public List<Result> finish() {
+		while (!outstanding.isEmpty()) {
+			processResponse(outstanding.removeFirst());
+		}
+		LOG.ok("Pipelined {0} requests to {1}, {2} failed", requestCount, LdapUtil.formatConnectionInfo(connection), failureCount);
+		return results;
+	}
+
+	private void submit(PendingRequest pending) {
+		requestCount++;
+		if (preserveOrder) {
+			waitFor(pending.dn);
+		}
+		if (outstanding.size() >= maxOutstanding) {
+			processResponse(outstanding.removeFirst());
+		}
+		send(pending);
+	}
+
+	private PendingRequest findRelated(Dn dn) {
+		for (PendingRequest pending: outstanding) {
+			if (pending.dn.equals(dn) || pending.dn.isAncestorOf(dn) || pending.dn.isDescendantOf(dn)) {
+				return pending;
+			}
+		}
+		return null;
+	}
+
+	private void send(PendingRequest pending) {
+		OperationLog.logOperationReq(connection, "{0} REQ {1} (pipelined, attempt {2})", pending.getOperationName(), pending.dn, pending.attempt + 1);
+		try {
+			Request request = pending.request;
+			if (request instanceof AddRequest) {
+				pending.future = connection.addAsync((AddRequest)request);
+			} else if (request instanceof ModifyRequest) {
+				pending.future = connection.modifyAsync((ModifyRequest)request);
+			} else {
+				pending.future = connection.deleteAsync((DeleteRequest)request);
+			}
+			outstanding.add(pending);
+		} catch (LdapException e) {
+			OperationLog.logOperationErr(connection, "{0} ERROR {1}: {2}", pending.getOperationName(), pending.dn, e.getMessage(), e);
+			addResult(pending, null, e);
+		}
+	}
+
+	private void processResponse(PendingRequest pending) {
+		Dn dn = pending.dn;
+		Response response;
+		try {
+			response = pending.future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			addResult(pending, null, new LdapException("Interrupted while waiting for response", e));
+			return;
+		} catch (ExecutionException | TimeoutException e) {
+			// Do not leave the request registered in the connection
+			pending.future.cancel(true);
+			OperationLog.logOperationErr(connection, "{0} ERROR {1}: {2}", pending.getOperationName(), dn, e.getMessage(), e);
+			addResult(pending, null, new LdapException(e.getMessage(), e));
+			return;
+		}
+		if (response == null) {
+			// Directory API returns null on timeout
+			pending.future.cancel(true);
+			OperationLog.logOperationErr(connection, "{0} ERROR {1}: timeout", pending.getOperationName(), dn);
+			addResult(pending, null, new LdapException("Timeout waiting for response for "+dn));
+			return;
+		}
+		ResultResponse resultResponse = (ResultResponse)response;
+		LdapResult ldapResult = resultResponse.getLdapResult();
+		OperationLog.logOperationRes(connection, "{0} RES {1}: {2}", pending.getOperationName(), dn, ldapResult);
+		if (ldapResult.getResultCode() != ResultCodeEnum.SUCCESS
+				&& pending.attempt + 1 < WriteExecutor.getMaxAttempts(ldapResult.getResultCode(), maxAttempts)) {
+			LOG.warn("{0} of {1} failed with {2} (attempt {3}), trying again", pending.getOperationName(), dn, ldapResult.getResultCode(), pending.attempt + 1);
+			pending.attempt++;
+			if (WriteExecutor.backoff(retryBackoffInterval, pending.attempt)) {
+				send(pending);
+				return;
+			}
+		}
+		addResult(pending, resultResponse, null);
+	}
+
+	private void addResult(PendingRequest pending, ResultResponse response, LdapException exception) {
+		Result result = new Result(pending.dn, pending.tag, response, exception);
+		if (!result.isSuccess()) {
+			failureCount++;
+		}
+		results.add(result);
+	}
+
+	/**
+	 * Returns only the failed results.
+	 */
+	public static List<Result> getFailures(List<Result> results) {
+		List<Result> failures = new ArrayList<>();
+		for (Result result: results) {
+			if (!result.isSuccess()) {
+				failures.add(result);
+			}
+		}
+		return failures;
+	}
+
+	private static class PendingRequest {
+		private final Request request;
+		private final Dn dn;
+		private final Object tag;
+		private ResponseFuture<?> future;
+		private int attempt = 0;
+
+		PendingRequest(Request request, Dn dn, Object tag) {
+			this.request = request;
+			this.dn = dn;
+			this.tag = tag;
+		}
+
+		String getOperationName() {
+			if (request instanceof AddRequest) {
+				return "Add";
+			} else if (request instanceof ModifyRequest) {
+				return "Modify";
+			} else {
+				return "Delete";
+			}
+		}
+	}
+
+	/**
+	 * Result of a request. There is either a response (the server processed the request,
+	 * successfully or not) or exception (the operation did not complete).
+	 */
+	public static class Result {
+		private final Dn dn;
+		private final Object tag;
+		private final ResultResponse response;
+		private final LdapException exception;
+
+		Result(Dn dn, Object tag, ResultResponse response, LdapException exception) {
+			this.dn = dn;
+			this.tag = tag;
+			this.response = response;
+			this.exception = exception;
+		}
+
+		public Dn getDn() {
+			return dn;
+		}
+
+		public Object getTag() {
+			return tag;
+		}
+
+		public ResultResponse getResponse() {
+			return response;
+		}
+
+		public LdapResult getLdapResult() {
+			return response == null ? null : response.getLdapResult();
+		}
+
+		public LdapException getException() {
+			return exception;
+		}
+
+		public boolean isSuccess() {
+			return response != null && response.getLdapResult().getResultCode() == ResultCodeEnum.SUCCESS;
+		}
+
+		@Override
+		public String toString() {
+			return dn + ": " + (response == null ? exception.getMessage() : LdapUtil.formatLdapMessage(response.getLdapResult()));
+		}
+	}
+
+}
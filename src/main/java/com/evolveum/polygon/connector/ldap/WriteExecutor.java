@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.exception.InvalidConnectionException;
+import org.apache.directory.ldap.client.api.exception.LdapConnectionTimeOutException;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+/**
+ * Executes LDAP write operations (add, modify, rename, delete) with retries.
+ *
+ * The operation is re-tried if the server is busy or unavailable (busy, unavailable and
+ * unwillingToPerform result codes) or if the connection is lost. There is a pause before each
+ * attempt. The pause grows exponentially and it is randomized, so the operations that failed
+ * together do not hit the server again at the same time. If the connection is lost then the
+ * operation is re-tried on another server for the same base context (if there is any).
+ *
+ * If the connection is lost then the server may have applied the operation, only the response
+ * was lost. The next attempt fails in that case, e.g. with entryAlreadyExists for add. The caller
+ * specifies such result codes. They are considered to be a success after a lost connection.
+ * The caller should check that the operation was really applied (e.g. that the existing entry
+ * is the entry that was added). Requests with assertion control should not be re-tried after
+ * a lost connection. The assertion would be evaluated against the entry that was already changed
+ * by the previous attempt and the operation would be reported as failed.
+ *
+ * Active Directory returns unwillingToPerform also for errors that are not transient
+ * (e.g. password policy violation). Therefore unwillingToPerform is re-tried only once.
+ */
+public class WriteExecutor<C extends AbstractLdapConfiguration> {
+
+	private static final Log LOG = Log.getLog(WriteExecutor.class);
+
+	private static final Random RND = new Random();
+	private static final int MAX_BACKOFF_MULTIPLIER = 64;
+	private static final int MAX_UNWILLING_TO_PERFORM_ATTEMPTS = 2;
+
+	/**
+	 * The operation is executed again for each attempt, possibly with a different connection.
+	 * Therefore the request has to be created for the connection that is passed in.
+	 */
+	public interface Operation<T extends ResultResponse> {
+		T execute(LdapNetworkConnection connection) throws LdapException;
+	}
+
+	private final ConnectionManager<C> connectionManager;
+	private final C configuration;
+
+	public WriteExecutor(ConnectionManager<C> connectionManager, C configuration) {
+		super();
+		this.connectionManager = connectionManager;
+		this.configuration = configuration;
+	}
+
+	/**
+	 * Executes the operation for the entry. Returns the response of the last attempt,
+	 * it may be an error response. Returns null if the operation was applied by an attempt
+	 * whose response was lost. Throws exception of the last attempt if there is no response.
+	 *
+	 * If reconnect is false then the operation is bound to the connection (e.g. it is part
+	 * of a transaction). It is not re-tried when the connection is lost.
+	 */
+	public <T extends ResultResponse> T execute(String operationName, Dn dn, boolean reconnect,
+			Operation<T> operation, ResultCodeEnum... appliedResultCodes) throws LdapException {
+		return execute(operationName, dn, reconnect, false, operation, appliedResultCodes);
+	}
+
+	/**
+	 * Executes the operation again after its previous attempt ended without a response
+	 * (e.g. pipelined request on a connection that was lost). The previous attempt may have been
+	 * applied, therefore the applied result codes are considered to be a success from the first attempt.
+	 */
+	public <T extends ResultResponse> T executeAgain(String operationName, Dn dn,
+			Operation<T> operation, ResultCodeEnum... appliedResultCodes) throws LdapException {
+		return execute(operationName, dn, true, true, operation, appliedResultCodes);
+	}
+
+	private <T extends ResultResponse> T execute(String operationName, Dn dn, boolean reconnect, boolean outcomeUnknown,
+			Operation<T> operation, ResultCodeEnum... appliedResultCodes) throws LdapException {
+		int maxAttempts = Math.max(configuration.getMaximumNumberOfAttempts(), 1);
+		LdapNetworkConnection connection = connectionManager.getConnection(dn);
+		int attempt = 0;
+		while (true) {
+			attempt++;
+			T response = null;
+			LdapOperationException operationException = null;
+			ResultCodeEnum resultCode;
+			try {
+				response = operation.execute(connection);
+				resultCode = response.getLdapResult().getResultCode();
+			} catch (LdapOperationException e) {
+				// Some methods of the connection throw exception instead of returning error response
+				operationException = e;
+				resultCode = e.getResultCode();
+			} catch (LdapException e) {
+				if (!reconnect || attempt >= maxAttempts || !isConnectionFailure(connection, e)) {
+					throw e;
+				}
+				LOG.warn("{0} of {1} failed because of connection error (attempt {2}), trying again: {3}",
+						operationName, dn, attempt, e.getMessage());
+				if (!backoff(configuration.getRetryBackoffInterval(), attempt)) {
+					throw e;
+				}
+				outcomeUnknown = true;
+				connection = failover(dn, connection);
+				continue;
+			}
+			if (outcomeUnknown && contains(appliedResultCodes, resultCode)) {
+				LOG.ok("{0} of {1} ended with {2} after connection error, considering it applied by previous attempt",
+						operationName, dn, resultCode);
+				return null;
+			}
+			if (attempt < getMaxAttempts(resultCode, maxAttempts)) {
+				LOG.warn("{0} of {1} failed with {2} (attempt {3}), trying again", operationName, dn, resultCode, attempt);
+				if (backoff(configuration.getRetryBackoffInterval(), attempt)) {
+					continue;
+				}
+			}
+			if (operationException != null) {
+				throw operationException;
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * Returns maximum number of attempts for an operation that ended with the result code.
+	 * Also used for pipelined requests (see RequestPipeline).
+	 */
+	static int getMaxAttempts(ResultCodeEnum resultCode, int maxAttempts) {
+		if (resultCode == ResultCodeEnum.BUSY || resultCode == ResultCodeEnum.UNAVAILABLE) {
+			return maxAttempts;
+		}
+		if (resultCode == ResultCodeEnum.UNWILLING_TO_PERFORM) {
+			return Math.min(maxAttempts, MAX_UNWILLING_TO_PERFORM_ATTEMPTS);
+		}
+		return 1;
+	}
+
+	private boolean isConnectionFailure(LdapNetworkConnection connection, LdapException e) {
+		return e instanceof InvalidConnectionException || e instanceof LdapConnectionTimeOutException
+				|| !connection.isConnected();
+	}
+
+	private LdapNetworkConnection failover(Dn dn, LdapNetworkConnection failedConnection) {
+		try {
+			return connectionManager.getConnectionFailover(dn, failedConnection);
+		} catch (ConnectorIOException e) {
+			LOG.warn("Cannot connect to a server for {0}: {1}", dn, e.getMessage());
+			// The next attempt fails on the failed connection and it fails over again
+			return failedConnection;
+		}
+	}
+
+	/**
+	 * Waits before the next attempt. Returns false if the thread was interrupted.
+	 * Also used for pipelined requests (see RequestPipeline).
+	 */
+	static boolean backoff(long interval, int attempt) {
+		if (interval <= 0) {
+			return true;
+		}
+		long maxDelay = interval * Math.min(1 << Math.min(attempt - 1, 30), MAX_BACKOFF_MULTIPLIER);
+		// Random delay between half and full of the maximum delay
+		long delay = maxDelay / 2 + (long)(RND.nextDouble() * (maxDelay / 2 + 1));
+		LOG.ok("Waiting {0}ms before next attempt", delay);
+		try {
+			Thread.sleep(delay);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private boolean contains(ResultCodeEnum[] resultCodes, ResultCodeEnum resultCode) {
+		for (ResultCodeEnum code: resultCodes) {
+			if (code == resultCode) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
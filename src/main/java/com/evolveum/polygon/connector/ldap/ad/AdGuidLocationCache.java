@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.ad;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Remembers the last known DN of Active Directory objects, indexed by objectGUID.
+ *
+ * The DN is used only to select the domain controller that is likely to hold the object.
+ * The object is still read by its GUID, therefore a stale DN does not cause any harm.
+ * It just means that the connector has to fall back to global catalog or brute force search.
+ *
+ * The caches live for the whole life of the connector classloader. There is one cache for
+ * each directory (host, port and base context) that is shared by all the connector instances.
+ * Connector instances are pooled and they come and go, but the objects stay where they are.
+ * If the instances are configured with different cache sizes then the cache is resized
+ * to the size of the latest instance.
+ */
+public class AdGuidLocationCache {
+
+	private static final Log LOG = Log.getLog(AdGuidLocationCache.class);
+
+	private static final Map<String, AdGuidLocationCache> CACHES = new HashMap<>();
+
+	private final String name;
+	private final Map<String, String> locations;
+	private int maxSize;
+
+	private AdGuidLocationCache(String name, int maxSize) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.locations = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, String> eldest) {
+				return size() > AdGuidLocationCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns cache for the directory specified by the configuration.
+	 * Returns null if the cache is disabled.
+	 */
+	public static AdGuidLocationCache getCache(AdLdapConfiguration configuration) {
+		if (configuration.getGuidLocationCacheSize() <= 0) {
+			return null;
+		}
+		String name = configuration.getHost() + ":" + configuration.getPort() + "/" + configuration.getBaseContext();
+		name = name.toLowerCase();
+		synchronized (CACHES) {
+			AdGuidLocationCache cache = CACHES.get(name);
+			if (cache == null) {
+				LOG.ok("Creating GUID location cache for {0}, size {1}", name, configuration.getGuidLocationCacheSize());
+				cache = new AdGuidLocationCache(name, configuration.getGuidLocationCacheSize());
+				CACHES.put(name, cache);
+			} else {
+				cache.resize(configuration.getGuidLocationCacheSize());
+			}
+			return cache;
+		}
+	}
+
+	private void resize(int newMaxSize) {
+		synchronized (locations) {
+			if (newMaxSize == maxSize) {
+				return;
+			}
+			LOG.ok("Resizing GUID location cache for {0} from {1} to {2}", name, maxSize, newMaxSize);
+			maxSize = newMaxSize;
+			// Drop the least recently used entries that do not fit any more
+			Iterator<String> iterator = locations.keySet().iterator();
+			while (locations.size() > maxSize && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns last known DN of the object with specified GUID (dashed notation).
+	 * Returns null if the location is not known.
+	 */
+	public String getDn(String guid) {
+		if (guid == null) {
+			return null;
+		}
+		synchronized (locations) {
+			return locations.get(guid);
+		}
+	}
+
+	public void record(String guid, String dn) {
+		if (guid == null || dn == null) {
+			return;
+		}
+		synchronized (locations) {
+			locations.put(guid, dn);
+		}
+	}
+
+	public void forget(String guid) {
+		if (guid == null) {
+			return;
+		}
+		synchronized (locations) {
+			locations.remove(guid);
+		}
+	}
+
+	@Override
+	public String toString() {
+		int size;
+		synchronized (locations) {
+			size = locations.size();
+		}
+		return "AdGuidLocationCache(" + name + ": " + size + " entries)";
+	}
+
+}
@@ -187,6 +187,15 @@ public class AdLdapConfiguration extends AbstractLdapConfiguration {
     public static final String ARGUMENT_STYLE_DASHED = "dashed";
     public static final String ARGUMENT_STYLE_VARIABLES = "variables";
     
+    /**
+     * Maximum number of objectGUID to DN mappings that the connector remembers.
+     * The remembered DN is used to select the domain controller when searching for
+     * an object by GUID. This avoids global catalog lookups and brute-force searches
+     * in multi-domain environments. The mapping is shared by all connector instances
+     * that connect to the same directory. Zero disables the cache.
+     */
+    private int guidLocationCacheSize = 10000;
+    
     @ConfigurationProperty(order = 100)
 	public String getUserObjectClass() {
 		return userObjectClass;
@@ -340,6 +349,15 @@ public class AdLdapConfiguration extends AbstractLdapConfiguration {
 		this.powershellArgumentStyle = powershellArgumentStyle;
 	}
 
+	@ConfigurationProperty(order = 116)
+	public int getGuidLocationCacheSize() {
+		return guidLocationCacheSize;
+	}
+
+	public void setGuidLocationCacheSize(int guidLocationCacheSize) {
+		this.guidLocationCacheSize = guidLocationCacheSize;
+	}
+
 	@Override
 	public void recompute() {
 		if (getPasswordAttribute() == null) {
@@ -16,7 +16,6 @@
 
 package com.evolveum.polygon.connector.ldap.ad;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -73,8 +72,10 @@ import com.evolveum.polygon.connector.ldap.AbstractLdapConfiguration;
 import com.evolveum.polygon.connector.ldap.AbstractLdapConnector;
 import com.evolveum.polygon.connector.ldap.LdapUtil;
 import com.evolveum.polygon.connector.ldap.OperationLog;
+import com.evolveum.polygon.connector.ldap.ServerDefinition;
 import com.evolveum.polygon.connector.ldap.schema.LdapFilterTranslator;
 import com.evolveum.polygon.connector.ldap.schema.AbstractSchemaTranslator;
+import com.evolveum.polygon.connector.ldap.search.CombinedSearch;
 import com.evolveum.polygon.connector.ldap.search.DefaultSearchStrategy;
 import com.evolveum.polygon.connector.ldap.search.SearchStrategy;
 
@@ -91,6 +92,7 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
     private static final Log LOG = Log.getLog(AdLdapConnector.class);
     
     private GlobalCatalogConnectionManager globalCatalogConnectionManager;
+    private AdGuidLocationCache guidLocationCache;
     private String winRmUsername;
     private String winRmHost;
     private WinRmTool winRmTool;
@@ -104,6 +106,7 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 	public void init(Configuration configuration) {
 		super.init(configuration);
 		globalCatalogConnectionManager = new GlobalCatalogConnectionManager(getConfiguration());
+		guidLocationCache = AdGuidLocationCache.getCache(getConfiguration());
 		
 		initWinRm();
 	}
@@ -117,7 +120,9 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 
 	@Override
 	protected AbstractSchemaTranslator<AdLdapConfiguration> createSchemaTranslator() {
-		return new AdSchemaTranslator(getSchemaManager(), getConfiguration());
+		AdSchemaTranslator schemaTranslator = new AdSchemaTranslator(getSchemaManager(), getConfiguration());
+		schemaTranslator.setGuidLocationCache(guidLocationCache);
+		return schemaTranslator;
 	}
 
 	@Override
@@ -183,8 +188,8 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 	}
 
 	@Override
-	protected SearchStrategy<AdLdapConfiguration> searchByUid(Uid uid, org.identityconnectors.framework.common.objects.ObjectClass objectClass,
-			ObjectClass ldapObjectClass, final ResultsHandler handler, OperationOptions options) {
+	protected SearchStrategy<AdLdapConfiguration> searchByUid(Uid uid, final org.identityconnectors.framework.common.objects.ObjectClass objectClass,
+			final ObjectClass ldapObjectClass, final ResultsHandler handler, final OperationOptions options) {
 		final String uidValue = SchemaUtil.getSingleStringNonBlankValue(uid);
 		
 		
@@ -222,8 +227,37 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 				return searchStrategy;
 			}
 		}
+		
+		// Second attempt: last known location, GUID search
+		
+		String knownDnString = getGuidLocation(uid);
+		if (knownDnString != null) {
+			
+			// Similar to the name hint. We have seen the object at this DN before. Use that to select the
+			// connection and then search by GUID DN. The search also verifies that the location is still valid.
+			
+			Dn knownDn = getSchemaTranslator().toDn(knownDnString);
+			SearchStrategy<AdLdapConfiguration> searchStrategy = getDefaultSearchStrategy(objectClass, ldapObjectClass, handler, options);
+			LdapNetworkConnection connection = getConnectionManager().getConnection(knownDn);
+			searchStrategy.setExplicitConnection(connection);
+			
+			Dn guidDn = getSchemaTranslator().getGuidDn(uidValue);
+			String[] attributesToGet = getAttributesToGet(ldapObjectClass, options);
+			try {
+				searchStrategy.search(guidDn, null, SearchScope.OBJECT, attributesToGet);
+			} catch (UnknownUidException e) {
+				LOG.ok("Object with GUID {0} is not at its last known location {1}: {2}", uidValue, knownDnString, e.getMessage());
+			} catch (LdapException e) {
+				throw LdapUtil.processLdapException("Error searching for DN '"+guidDn+"'", e);
+			}
+			
+			if (searchStrategy.getNumberOfEntriesFound() > 0) {
+				return searchStrategy;
+			}
+			guidLocationCache.forget(uidValue);
+		}
 
-		// Second attempt: global catalog
+		// Third attempt: global catalog
 		
 		if (AdLdapConfiguration.GLOBAL_CATALOG_STRATEGY_NONE.equals(getConfiguration().getGlobalCatalogStrategy())) {
 			// Make search with <GUID=....> baseDn on default connection. Rely on referrals to point our head to
@@ -294,26 +328,37 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 			throw new IllegalStateException("Unknown global catalog strategy '"+getConfiguration().getGlobalCatalogStrategy()+"'");
 		}
 		
-		// Third attempt: brutal search over all the servers
+		// Fourth attempt: brutal search over all the servers
 		
 		if (getConfiguration().isAllowBruteForceSearch()) {
 			LOG.ok("Cannot find object with GUID {0} by using name hint or global catalog. Resorting to brute-force search",
 					uidValue);
-			Dn guidDn = getSchemaTranslator().getGuidDn(uidValue);
-			String[] attributesToGet = getAttributesToGet(ldapObjectClass, options);
-			for (LdapNetworkConnection connection: getConnectionManager().getAllConnections()) {
-				SearchStrategy<AdLdapConfiguration> searchStrategy = getDefaultSearchStrategy(objectClass, ldapObjectClass, handler, options);
-				searchStrategy.setExplicitConnection(connection);
-				
-				try {
-					searchStrategy.search(guidDn, null, SearchScope.OBJECT, attributesToGet);
-				} catch (LdapException e) {
-					throw LdapUtil.processLdapException("Error searching for DN '"+guidDn+"'", e);
-				}
-				
-				if (searchStrategy.getNumberOfEntriesFound() > 0) {
-					return searchStrategy;
-				}
+			final Dn guidDn = getSchemaTranslator().getGuidDn(uidValue);
+			final String[] attributesToGet = getAttributesToGet(ldapObjectClass, options);
+			// Ask all the servers, one after another. The object can be only on one of them, therefore
+			// the first hit wins and the remaining servers are skipped.
+			CombinedSearch<AdLdapConfiguration> combinedSearch = new CombinedSearch<>(handler);
+			for (final ServerDefinition server: getConnectionManager().getServers()) {
+				combinedSearch.addTask(new CombinedSearch.Task<AdLdapConfiguration>("GUID "+uidValue+" on "+server.getHost(), true) {
+					@Override
+					protected SearchStrategy<AdLdapConfiguration> search(ResultsHandler taskHandler) {
+						LdapNetworkConnection connection = getConnectionManager().getConnection(server);
+						SearchStrategy<AdLdapConfiguration> searchStrategy = getDefaultSearchStrategy(objectClass, ldapObjectClass, taskHandler, options);
+						searchStrategy.setExplicitConnection(connection);
+						
+						try {
+							searchStrategy.search(guidDn, null, SearchScope.OBJECT, attributesToGet);
+						} catch (LdapException e) {
+							throw LdapUtil.processLdapException("Error searching for DN '"+guidDn+"'", e);
+						}
+						return searchStrategy;
+					}
+				});
+			}
+			
+			SearchStrategy<AdLdapConfiguration> searchStrategy = combinedSearch.execute();
+			if (searchStrategy != null && searchStrategy.getNumberOfEntriesFound() > 0) {
+				return searchStrategy;
 			}
 			
 		} else {
@@ -357,6 +402,24 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 		
 		Dn guidDn = getSchemaTranslator().getGuidDn(guid);
 		
+		String knownDnString = getGuidLocation(uid);
+		if (knownDnString != null) {
+			// Same as name hint, just the DN comes from the objects that we have seen before.
+			Dn knownDn = getSchemaTranslator().toDn(knownDnString);
+			LOG.ok("Resolvig DN by using last known location {0} and guid {1}", knownDn, guid);
+			try {
+				Entry entry = searchSingleEntry(getConnectionManager(), guidDn, LdapUtil.createAllSearchFilter(), SearchScope.OBJECT, 
+						new String[]{AbstractLdapConfiguration.PSEUDO_ATTRIBUTE_DN_NAME}, "LDAP entry for GUID "+guid, knownDn);
+				if (entry != null) {
+					recordGuidLocation(guid, entry.getDn());
+					return entry.getDn();
+				}
+			} catch (UnknownUidException e) {
+				LOG.ok("Object with GUID {0} is not at its last known location {1}: {2}", guid, knownDnString, e.getMessage());
+			}
+			guidLocationCache.forget(guid);
+		}
+		
 		if (AdLdapConfiguration.GLOBAL_CATALOG_STRATEGY_NONE.equals(getConfiguration().getGlobalCatalogStrategy())) {
 			LOG.ok("Resolvig DN by search for {0} (no global catalog)", guidDn);
 			Entry entry = searchSingleEntry(getConnectionManager(), guidDn, LdapUtil.createAllSearchFilter(), SearchScope.OBJECT, 
@@ -364,6 +427,7 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 			if (entry == null) {
 				throw new UnknownUidException("Entry for GUID "+guid+" was not found");
 			}
+			recordGuidLocation(guid, entry.getDn());
 			return entry.getDn();
 			
 		} else {
@@ -374,10 +438,39 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 				throw new UnknownUidException("Entry for GUID "+guid+" was not found in global catalog");
 			}
 			LOG.ok("Resolved GUID {0} in glogbal catalog to DN {1}", guid, entry.getDn());
+			recordGuidLocation(guid, entry.getDn());
 			return entry.getDn();
 		}
 	}
 	
+	/**
+	 * Returns last known DN of the object, unless it is the same as the name hint.
+	 * There is no point in trying the same DN twice.
+	 */
+	private String getGuidLocation(Uid uid) {
+		if (guidLocationCache == null) {
+			return null;
+		}
+		String knownDnString = guidLocationCache.getDn(uid.getUidValue());
+		if (knownDnString != null && uid.getNameHint() != null && knownDnString.equalsIgnoreCase(uid.getNameHintValue())) {
+			return null;
+		}
+		return knownDnString;
+	}
+	
+	private void recordGuidLocation(String guid, Dn dn) {
+		if (guidLocationCache != null) {
+			guidLocationCache.record(guid, dn.getName());
+		}
+	}
+	
+	@Override
+	protected void postDelete(org.identityconnectors.framework.common.objects.ObjectClass objectClass, Uid uid, Dn dn) {
+		if (guidLocationCache != null) {
+			guidLocationCache.forget(uid.getUidValue());
+		}
+	}
+	
 	private void initWinRm() {
 		initBus();
 		winRmUsername = getWinRmUsername();
@@ -655,15 +748,16 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 	}
 	
 	@Override
-	protected void postUpdate(org.identityconnectors.framework.common.objects.ObjectClass icfObjectClass,
+	protected void preUpdate(org.identityconnectors.framework.common.objects.ObjectClass icfObjectClass,
 			Uid uid, Set<Attribute> values, OperationOptions options, ModificationOperation modOp, 
 			Dn dn, org.apache.directory.api.ldap.model.schema.ObjectClass ldapStructuralObjectClass,
 			List<Modification> modifications) {
-		super.postUpdate(icfObjectClass, uid, values, options, modOp, dn, ldapStructuralObjectClass, modifications);
+		super.preUpdate(icfObjectClass, uid, values, options, modOp, dn, ldapStructuralObjectClass, modifications);
 		
 		if (getConfiguration().isForcePasswordChangeAtNextLogon()) {
 			
 			//if password is in modifications set pwdLastSet=0 ("must change password at next logon")
+			// pwdLastSet goes in the same modify request as the password, therefore both are set atomically
 			if (getSchemaTranslator().isUserObjectClass(ldapStructuralObjectClass.getName())) {
 				for (Attribute icfAttr: values) {
 					
@@ -671,10 +765,8 @@ public class AdLdapConnector extends AbstractLdapConnector<AdLdapConfiguration>
 					// TODO: should we additionally ask for  icfAttr.getName().equals(getConfiguration().getPasswordAttribute()?
 					if (OperationalAttributeInfos.PASSWORD.is(icfAttr.getName())){
 						
-							List<Modification> modificationsPwdLastSet = new ArrayList<Modification>();	
 							Attribute attrPwdLastSet = AttributeBuilder.build(AdConstants.ATTRIBUTE_PWD_LAST_SET_NAME, "0");					
-							addAttributeModification(dn, modificationsPwdLastSet, ldapStructuralObjectClass, icfObjectClass, attrPwdLastSet, ModificationOperation.REPLACE_ATTRIBUTE);
-							modify(dn, modificationsPwdLastSet);
+							addAttributeModification(dn, modifications, ldapStructuralObjectClass, icfObjectClass, attrPwdLastSet, ModificationOperation.REPLACE_ATTRIBUTE);
 							break;
 						}
 				}
@@ -28,13 +28,17 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
 
 import com.evolveum.polygon.connector.ldap.LdapUtil;
 import com.evolveum.polygon.connector.ldap.schema.AbstractSchemaTranslator;
+import com.evolveum.polygon.connector.ldap.schema.AttributeHandler;
 
 /**
  * @author semancik
@@ -61,10 +65,19 @@ public class AdSchemaTranslator extends AbstractSchemaTranslator<AdLdapConfigura
 	};
 	
 	private AttributeType guidAttributeType = null;
+	private AdGuidLocationCache guidLocationCache = null;
 	
 	public AdSchemaTranslator(SchemaManager schemaManager, AdLdapConfiguration configuration) {
 		super(schemaManager, configuration);
 	}
+	
+	public AdGuidLocationCache getGuidLocationCache() {
+		return guidLocationCache;
+	}
+
+	public void setGuidLocationCache(AdGuidLocationCache guidLocationCache) {
+		this.guidLocationCache = guidLocationCache;
+	}
 
 	@Override
 	protected void extendObjectClassDefinition(ObjectClassInfoBuilder ocib,
@@ -286,6 +299,17 @@ public class AdSchemaTranslator extends AbstractSchemaTranslator<AdLdapConfigura
 		return sb.toString();
 	}
 	
+	@Override
+	public ConnectorObject toIcfObject(LdapNetworkConnection connection, ObjectClassInfo icfStructuralObjectClassInfo,
+			Entry entry, String dn, AttributeHandler attributeHandler) {
+		ConnectorObject connectorObject = super.toIcfObject(connection, icfStructuralObjectClassInfo, entry, dn, attributeHandler);
+		// Every object that we see tells us where it lives. Remember that for the next search by GUID.
+		if (guidLocationCache != null && AdLdapConfiguration.ATTRIBUTE_OBJECT_GUID_NAME.equalsIgnoreCase(getConfiguration().getUidAttribute())) {
+			guidLocationCache.record(connectorObject.getUid().getUidValue(), connectorObject.getName().getNameValue());
+		}
+		return connectorObject;
+	}
+	
 	@Override
 	public String getDn(Entry entry) {
 		// distinguishedName attribute provides better DN format (some kind of Microsoft-cannonical form).
@@ -17,7 +17,9 @@
 package com.evolveum.polygon.connector.ldap.edirectory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
@@ -142,6 +144,25 @@ public class EDirectoryLdapConnector extends AbstractLdapConnector<EDirectoryLda
 		return super.processModifyResult(dn, modifications, e);
 	}
 
+	@Override
+	protected boolean isMultiRequestUpdate(org.identityconnectors.framework.common.objects.ObjectClass icfObjectClass,
+			Set<Attribute> values, ModificationOperation modOp) {
+		if (super.isMultiRequestUpdate(icfObjectClass, values, modOp)) {
+			return true;
+		}
+		if (!getConfiguration().isManageReciprocalGroupAttributes()) {
+			return false;
+		}
+		// Reciprocal attributes of the members are updated by additional requests (see postUpdate)
+		for (Attribute icfAttr: values) {
+			if (icfAttr.is(getConfiguration().getGroupObjectMemberAttribute()) 
+					|| icfAttr.is(getConfiguration().getGroupObjectGroupMemberAttribute())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	protected void postUpdate(org.identityconnectors.framework.common.objects.ObjectClass icfObjectClass,
 			Uid uid, Set<Attribute> values, OperationOptions options, ModificationOperation modOp, 
@@ -152,44 +173,41 @@ public class EDirectoryLdapConnector extends AbstractLdapConnector<EDirectoryLda
 			return;
 		}
 		if (getSchemaTranslator().isGroupObjectClass(ldapStructuralObjectClass.getName())) {
+			// All the members are modified at once. The requests are pipelined, which makes a big difference for large groups.
+			Map<Dn, List<Modification>> reciprocalModifications = new LinkedHashMap<>();
 			for (Attribute icfAttr: values) {
 				if (icfAttr.is(getConfiguration().getGroupObjectMemberAttribute())) {
 				// this is for group of users; "members"
-					for (Object val: icfAttr.getValue()) {
-						Dn memberDn = getSchemaTranslator().toDn((String)val);
-						List<Modification> rModifications = new ArrayList<Modification>(2);
-						rModifications.add(
-								new DefaultModification(modOp, EDirectoryConstants.ATTRIBUTE_GROUP_MEMBERSHIP_NAME, 
-										dn.toString()));
-						// No need to update securityEquals. eDirectory is doing that by itself
-						// (the question is why it cannot do also to the groupMemberhip?)
-//						if (getConfiguration().isManageEquivalenceAttributes()) {
-//							rModifications.add(
-//									new DefaultModification(modOp, EDirectoryConstants.ATTRIBUTE_SECURITY_EQUALS_NAME, 
-//											dn));
-//						}
-						modify(memberDn, rModifications);
-					}
+					addReciprocalModifications(reciprocalModifications, icfAttr, modOp, dn);
 				}
 				if (icfAttr.is(getConfiguration().getGroupObjectGroupMemberAttribute())) {
 				// this is for group of groups (nested); "groupMember"
-					for (Object val: icfAttr.getValue()) {
-						Dn memberDn = getSchemaTranslator().toDn((String)val);
-						List<Modification> rModifications = new ArrayList<Modification>(2);
-						rModifications.add(
-								new DefaultModification(modOp, EDirectoryConstants.ATTRIBUTE_GROUP_MEMBERSHIP_NAME, 
-										dn.toString()));
-						// No need to update securityEquals. eDirectory is doing that by itself
-						// (the question is why it cannot do also to the groupMemberhip?)
-//						if (getConfiguration().isManageEquivalenceAttributes()) {
-//							rModifications.add(
-//									new DefaultModification(modOp, EDirectoryConstants.ATTRIBUTE_SECURITY_EQUALS_NAME, 
-//											dn));
-//						}
-						modify(memberDn, rModifications);
-					}
+					addReciprocalModifications(reciprocalModifications, icfAttr, modOp, dn);
 				}
 			}
+			modifyAll(reciprocalModifications);
+		}
+	}
+
+	private void addReciprocalModifications(Map<Dn, List<Modification>> reciprocalModifications, Attribute icfAttr, 
+			ModificationOperation modOp, Dn groupDn) {
+		for (Object val: icfAttr.getValue()) {
+			Dn memberDn = getSchemaTranslator().toDn((String)val);
+			List<Modification> rModifications = reciprocalModifications.get(memberDn);
+			if (rModifications == null) {
+				rModifications = new ArrayList<Modification>(2);
+				reciprocalModifications.put(memberDn, rModifications);
+			}
+			rModifications.add(
+					new DefaultModification(modOp, EDirectoryConstants.ATTRIBUTE_GROUP_MEMBERSHIP_NAME, 
+							groupDn.toString()));
+			// No need to update securityEquals. eDirectory is doing that by itself
+			// (the question is why it cannot do also to the groupMemberhip?)
+//			if (getConfiguration().isManageEquivalenceAttributes()) {
+//				rModifications.add(
+//						new DefaultModification(modOp, EDirectoryConstants.ATTRIBUTE_SECURITY_EQUALS_NAME, 
+//								dn));
+//			}
 		}
 	}
     
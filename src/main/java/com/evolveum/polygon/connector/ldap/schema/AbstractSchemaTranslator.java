@@ -18,14 +18,19 @@ package com.evolveum.polygon.connector.ldap.schema;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
@@ -44,7 +49,6 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapSyntax;
 import org.apache.directory.api.ldap.model.schema.MutableAttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.util.GeneralizedTime;
 import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.apache.directory.ldap.client.api.exception.InvalidConnectionException;
 import org.identityconnectors.common.Base64;
@@ -62,6 +66,7 @@ import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
+import org.identityconnectors.framework.common.objects.OperationOptionInfo;
 import org.identityconnectors.framework.common.objects.OperationOptionInfoBuilder;
 import org.identityconnectors.framework.common.objects.OperationalAttributeInfos;
 import org.identityconnectors.framework.common.objects.PredefinedAttributeInfos;
@@ -69,11 +74,15 @@ import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
 import org.identityconnectors.framework.spi.operations.SyncOp;
+import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
+import org.identityconnectors.framework.spi.operations.UpdateOp;
 
 import com.evolveum.polygon.common.SchemaUtil;
 import com.evolveum.polygon.connector.ldap.AbstractLdapConfiguration;
+import com.evolveum.polygon.connector.ldap.AssertionControl;
 import com.evolveum.polygon.connector.ldap.ConnectionManager;
 import com.evolveum.polygon.connector.ldap.LdapConfiguration;
 import com.evolveum.polygon.connector.ldap.LdapConnector;
@@ -81,6 +90,14 @@ import com.evolveum.polygon.connector.ldap.LdapConstants;
 import com.evolveum.polygon.connector.ldap.LdapUtil;
 
 /**
+ * Translates LDAP schema, entries, values and DNs to ConnId and back.
+ *
+ * The translator belongs to a single connector instance and it is not thread-safe. It must
+ * be used only from the thread that invokes the connector operation. The caches that the
+ * translator keeps are concurrent maps, but that only protects the caches, it does not make
+ * the translation thread-safe. Only the map of translated object classes is shared with other
+ * connector instances (see SharedSchemaManager).
+ *
  * @author semancik
  *
  */
@@ -89,21 +106,66 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 	private static final Log LOG = Log.getLog(AbstractSchemaTranslator.class);
 	private static final Collection<String> STRING_ATTRIBUTE_NAMES = new ArrayList<>();
 	private static final Map<String, TypeSubType> SYNTAX_MAP = new HashMap<>();
+	private static final int MAX_OBJECT_CLASS_SETS = 1000;
 	
 	private SchemaManager schemaManager;
 	private C configuration;
 	private Schema icfSchema = null;
+	private volatile boolean schemaCacheChecked = false;
+	private final DnCache dnCache;
+	private final ConcurrentMap<String, ObjectClassAttributeTable> attributeTables = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, EntryTranslationPlan> translationPlans = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LdapObjectClasses> objectClassSets = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ObjectClassInfo> icfObjectClassInfos = new ConcurrentHashMap<>();
+	private volatile Map<String, Boolean> binaryAttributeTable = null;
+	private ConcurrentMap<String, ObjectClassInfo> translatedObjectClasses = null;
+	private volatile String commonDefinition = null;
+	private final ConcurrentMap<String, ValueConverter> valueConverters = new ConcurrentHashMap<>();
 	
 	public AbstractSchemaTranslator(SchemaManager schemaManager, C configuration) {
 		super();
 		this.schemaManager = schemaManager;
 		this.configuration = configuration;
+		this.dnCache = new DnCache(schemaManager);
 	}
 	
 	public Schema getIcfSchema() {
 		return icfSchema;
 	}
 
+	/**
+	 * Sets schema that was translated before, e.g. schema from the schema file cache.
+	 * It must be a result of translation of the same LDAP schema.
+	 */
+	public void setIcfSchema(Schema icfSchema) {
+		this.icfSchema = icfSchema;
+		attributeTables.clear();
+		translationPlans.clear();
+		icfObjectClassInfos.clear();
+	}
+
+	/**
+	 * True if the schema file cache was already checked for this schema. The translator
+	 * is created again when the schema changes, therefore the cache is checked only once
+	 * for each version of the schema.
+	 */
+	public boolean isSchemaCacheChecked() {
+		return schemaCacheChecked;
+	}
+
+	public void setSchemaCacheChecked(boolean schemaCacheChecked) {
+		this.schemaCacheChecked = schemaCacheChecked;
+	}
+
+	/**
+	 * Sets object classes that were translated before, indexed by hash of their LDAP definition.
+	 * They may come from a different version of LDAP schema. Object classes which definition
+	 * did not change are taken from here instead of translating them again.
+	 */
+	public void setTranslatedObjectClasses(ConcurrentMap<String, ObjectClassInfo> translatedObjectClasses) {
+		this.translatedObjectClasses = translatedObjectClasses;
+	}
+
 	public SchemaManager getSchemaManager() {
 		return schemaManager;
 	}
@@ -111,30 +173,28 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 	public C getConfiguration() {
 		return configuration;
 	}
+	
+	public DnCache getDnCache() {
+		return dnCache;
+	}
 
 	public Schema translateSchema(ConnectionManager<C> connection) throws InvalidConnectionException {
 		SchemaBuilder schemaBuilder = new SchemaBuilder(LdapConnector.class);
 		LOG.ok("Translating LDAP schema from {0}", schemaManager);
 		
+		Set<String> definitionHashes = new HashSet<>();
 		for (org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass: schemaManager.getObjectClassRegistry()) {
 			if (shouldTranslateObjectClass(ldapObjectClass.getName())) {
 				LOG.ok("Found LDAP schema object class {0}, translating", ldapObjectClass.getName());
-				ObjectClassInfoBuilder ocib = new ObjectClassInfoBuilder();
-				ocib.setType(toIcfObjectClassType(ldapObjectClass));
-				Map<String, AttributeInfo> attrInfoList = new HashMap<>();
-				addAttributeTypes(attrInfoList, ldapObjectClass);
-				ocib.addAllAttributeInfo(attrInfoList.values());
-				
-				if (ldapObjectClass.isAuxiliary()) {
-					ocib.setAuxiliary(true);
-				}
-				
-				extendObjectClassDefinition(ocib, ldapObjectClass);
-				schemaBuilder.defineObjectClass(ocib.build());
+				schemaBuilder.defineObjectClass(translateObjectClass(ldapObjectClass, definitionHashes));
 			} else {
 				LOG.ok("Found LDAP schema object class {0}, skipping", ldapObjectClass.getName());
 			}
 		}
+		if (translatedObjectClasses != null) {
+			// Forget object classes that are no longer in the schema (or that have changed)
+			translatedObjectClasses.keySet().retainAll(definitionHashes);
+		}
 		
 		schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildAttributesToGet(), SearchOp.class, SyncOp.class);
 		schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildReturnDefaultAttributes(), SearchOp.class, SyncOp.class);
@@ -163,12 +223,152 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		if (supportedControls.contains(SortRequest.OID)) {
 			schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildSortKeys(), SearchOp.class);
 		}
+		if (supportedControls.contains(AssertionControl.OID)) {
+			OperationOptionInfo assertionOption = new OperationOptionInfo(AssertionControl.OPERATION_OPTION_NAME, String.class);
+			schemaBuilder.defineOperationOption(assertionOption, UpdateOp.class);
+			schemaBuilder.defineOperationOption(assertionOption, UpdateAttributeValuesOp.class);
+		}
+		// Supported even without tree delete control, the connector deletes the subtree entry by entry
+		schemaBuilder.defineOperationOption(new OperationOptionInfo(LdapConstants.OPERATION_OPTION_SUBTREE_DELETE, Boolean.class), DeleteOp.class);
 		
 		icfSchema = schemaBuilder.build();
+		attributeTables.clear();
+		translationPlans.clear();
+		icfObjectClassInfos.clear();
 		LOG.ok("Translated schema {0}", icfSchema);
 		return icfSchema;
 	}
 
+	/**
+	 * Translates object class. If the same definition was translated before then the previous
+	 * translation is used. Hashes of the definitions are collected in definitionHashes (if not null).
+	 */
+	private ObjectClassInfo translateObjectClass(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass,
+			Set<String> definitionHashes) {
+		if (translatedObjectClasses == null) {
+			return buildObjectClassInfo(ldapObjectClass);
+		}
+		String definitionHash = getDefinitionHash(ldapObjectClass);
+		if (definitionHash == null) {
+			return buildObjectClassInfo(ldapObjectClass);
+		}
+		if (definitionHashes != null) {
+			definitionHashes.add(definitionHash);
+		}
+		ObjectClassInfo icfObjectClassInfo = translatedObjectClasses.get(definitionHash);
+		if (icfObjectClassInfo != null) {
+			LOG.ok("Definition of object class {0} has not changed, using previous translation", ldapObjectClass.getName());
+			return icfObjectClassInfo;
+		}
+		icfObjectClassInfo = buildObjectClassInfo(ldapObjectClass);
+		translatedObjectClasses.put(definitionHash, icfObjectClassInfo);
+		return icfObjectClassInfo;
+	}
+	
+	private ObjectClassInfo buildObjectClassInfo(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
+		ObjectClassInfoBuilder ocib = new ObjectClassInfoBuilder();
+		ocib.setType(toIcfObjectClassType(ldapObjectClass));
+		Map<String, AttributeInfo> attrInfoList = new HashMap<>();
+		addAttributeTypes(attrInfoList, ldapObjectClass);
+		ocib.addAllAttributeInfo(attrInfoList.values());
+		
+		if (ldapObjectClass.isAuxiliary()) {
+			ocib.setAuxiliary(true);
+		}
+		
+		extendObjectClassDefinition(ocib, ldapObjectClass);
+		return ocib.build();
+	}
+	
+	/**
+	 * Translates just one object class. This is used if we do not have the complete ConnId schema.
+	 * Complete schema means translation of all the object classes, which may take a long time
+	 * (there are more than thousand object classes in AD). Yet, usual operation needs just one
+	 * or two of them.
+	 * Returns null if there is no such object class or if it should not be translated.
+	 */
+	private ObjectClassInfo translateObjectClass(String icfObjectClassType) {
+		String ldapObjectClassName = toLdapObjectClassName(new ObjectClass(icfObjectClassType));
+		if (!shouldTranslateObjectClass(ldapObjectClassName)) {
+			return null;
+		}
+		org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass;
+		try {
+			ldapObjectClass = schemaManager.lookupObjectClassRegistry(ldapObjectClassName);
+		} catch (LdapException e) {
+			LOG.ok("Object class {0} not found in LDAP schema: {1}", ldapObjectClassName, e.getMessage());
+			return null;
+		}
+		LOG.ok("Translating LDAP schema object class {0} on demand", ldapObjectClass.getName());
+		return translateObjectClass(ldapObjectClass, null);
+	}
+	
+	/**
+	 * Returns hash of everything in the LDAP schema that the translation of the object class depends on:
+	 * the object class, its superiors, their attribute types, UID attribute and operational attributes.
+	 * The configuration is not part of the hash. Translated object classes must not be shared
+	 * between different configurations.
+	 */
+	private String getDefinitionHash(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
+		StringBuilder sb = new StringBuilder(getCommonDefinition());
+		appendDefinition(sb, ldapObjectClass);
+		return LdapUtil.hash(sb.toString());
+	}
+	
+	private String getCommonDefinition() {
+		if (commonDefinition == null) {
+			StringBuilder sb = new StringBuilder("UID");
+			appendDefinition(sb, lookupAttributeTypeQuietly(configuration.getUidAttribute()));
+			sb.append(" OPERATIONAL");
+			for (String operationalAttributeLdapName: configuration.getOperationalAttributes()) {
+				appendDefinition(sb, lookupAttributeTypeQuietly(operationalAttributeLdapName));
+			}
+			sb.append(";");
+			commonDefinition = sb.toString();
+		}
+		return commonDefinition;
+	}
+	
+	private void appendDefinition(StringBuilder sb, org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
+		sb.append("OC ").append(ldapObjectClass.getOid()).append(ldapObjectClass.getNames()).append(ldapObjectClass.getType());
+		sb.append(" MUST");
+		for (AttributeType attributeType: ldapObjectClass.getMustAttributeTypes()) {
+			appendDefinition(sb, attributeType);
+		}
+		sb.append(" MAY");
+		for (AttributeType attributeType: ldapObjectClass.getMayAttributeTypes()) {
+			appendDefinition(sb, attributeType);
+		}
+		sb.append(" SUP(");
+		List<org.apache.directory.api.ldap.model.schema.ObjectClass> superiors = ldapObjectClass.getSuperiors();
+		if (superiors != null) {
+			for (org.apache.directory.api.ldap.model.schema.ObjectClass superior: superiors) {
+				appendDefinition(sb, superior);
+			}
+		}
+		sb.append(");");
+	}
+	
+	private void appendDefinition(StringBuilder sb, AttributeType attributeType) {
+		if (attributeType == null) {
+			sb.append(" -");
+			return;
+		}
+		sb.append(" ").append(attributeType.getOid()).append(attributeType.getNames()).append(attributeType.getSyntaxOid());
+		sb.append(attributeType.isSingleValued() ? "S" : "M");
+		sb.append(attributeType.isUserModifiable() ? "U" : "-");
+		sb.append(attributeType.isReadOnly() ? "R" : "-");
+		sb.append(attributeType.getUsage());
+	}
+	
+	private AttributeType lookupAttributeTypeQuietly(String ldapAttributeName) {
+		try {
+			return schemaManager.lookupAttributeTypeRegistry(ldapAttributeName);
+		} catch (LdapException e) {
+			return null;
+		}
+	}
+
 	protected void extendObjectClassDefinition(ObjectClassInfoBuilder ocib,
 			org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
 		// Nothing to do. Expected to be overridden in subclasses.
@@ -186,15 +386,6 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		return icfObjectClass.getObjectClassValue();
 	}
 
-	/**
-	 * Make sure that we have icfSchema  
-	 */
-	public void prepareIcfSchema(ConnectionManager<C> connectionManager) throws InvalidConnectionException {
-		if (icfSchema == null) {
-			translateSchema(connectionManager);
-		}
-	}
-	
 	private void addAttributeTypes(Map<String, AttributeInfo> attrInfoList, org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
 		
 		// ICF UID
@@ -383,6 +574,12 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		if (Name.NAME.equals(icfAttributeName)) {
 			return null;
 		}
+		if (ldapObjectClass != null) {
+			ObjectClassAttributeTable.AttributeBinding binding = getAttributeTable(ldapObjectClass).findIcfAttribute(icfAttributeName);
+			if (binding != null && binding.getAttributeType() != null) {
+				return binding.getAttributeType();
+			}
+		}
 		String ldapAttributeName;
 		if (Uid.NAME.equals(icfAttributeName)) {
 			ldapAttributeName = configuration.getUidAttribute();
@@ -410,6 +607,103 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		}
 	}
 	
+	/**
+	 * Returns attribute lookup table for the object class. The tables are built only once.
+	 */
+	public ObjectClassAttributeTable getAttributeTable(ObjectClassInfo icfObjectClassInfo) {
+		String key = icfObjectClassInfo.getType();
+		ObjectClassAttributeTable table = attributeTables.get(key);
+		if (table == null) {
+			org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass = null;
+			try {
+				ldapObjectClass = schemaManager.lookupObjectClassRegistry(toLdapObjectClassName(new ObjectClass(key)));
+			} catch (LdapException e) {
+				LOG.ok("No LDAP object class for {0}, attribute table will contain only ConnId attributes", key);
+			}
+			table = buildAttributeTable(ldapObjectClass, icfObjectClassInfo);
+			attributeTables.putIfAbsent(key, table);
+		}
+		return table;
+	}
+	
+	/**
+	 * Returns attribute lookup table for the object class. The tables are built only once.
+	 */
+	public ObjectClassAttributeTable getAttributeTable(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
+		String key = toIcfObjectClassType(ldapObjectClass);
+		ObjectClassAttributeTable table = attributeTables.get(key);
+		if (table == null) {
+			table = buildAttributeTable(ldapObjectClass, findObjectClassInfo(key));
+			attributeTables.putIfAbsent(key, table);
+		}
+		return table;
+	}
+	
+	private ObjectClassAttributeTable buildAttributeTable(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass, 
+			ObjectClassInfo icfObjectClassInfo) {
+		ObjectClassAttributeTable table = new ObjectClassAttributeTable(ldapObjectClass, icfObjectClassInfo);
+		if (icfObjectClassInfo != null) {
+			for (AttributeInfo attributeInfo: icfObjectClassInfo.getAttributeInfo()) {
+				String icfAttributeName = attributeInfo.getName();
+				String ldapAttributeName;
+				if (Name.NAME.equals(icfAttributeName)) {
+					ldapAttributeName = null;
+				} else if (Uid.NAME.equals(icfAttributeName)) {
+					ldapAttributeName = configuration.getUidAttribute();
+				} else if (OperationalAttributeInfos.PASSWORD.is(icfAttributeName)) {
+					ldapAttributeName = configuration.getPasswordAttribute();
+				} else {
+					ldapAttributeName = icfAttributeName;
+				}
+				AttributeType attributeType = null;
+				if (ldapAttributeName != null) {
+					attributeType = schemaManager.getAttributeType(ldapAttributeName);
+				}
+				boolean binary = attributeType != null && detectBinaryAttribute(attributeType.getName());
+				table.addIcfAttribute(icfAttributeName, 
+						new ObjectClassAttributeTable.AttributeBinding(attributeType, icfAttributeName, attributeInfo, attributeInfo.getType(), binary));
+			}
+		}
+		if (ldapObjectClass != null) {
+			addLdapAttributes(table, ldapObjectClass);
+		}
+		LOG.ok("Built {0}", table);
+		return table;
+	}
+	
+	private void addLdapAttributes(ObjectClassAttributeTable table, org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass) {
+		addLdapAttributes(table, ldapObjectClass.getMustAttributeTypes());
+		addLdapAttributes(table, ldapObjectClass.getMayAttributeTypes());
+		for (org.apache.directory.api.ldap.model.schema.ObjectClass superior: ldapObjectClass.getSuperiors()) {
+			if (superior.getName().equalsIgnoreCase(SchemaConstants.TOP_OC)) {
+				// Do not even try top object class. Standard top objectclass has nothing to offer.
+				// And some non-standard (e.g. AD) definitions will only screw everything up as they
+				// contain definition for attributes that are not really meaningful.
+				continue;
+			}
+			addLdapAttributes(table, superior);
+		}
+	}
+	
+	private void addLdapAttributes(ObjectClassAttributeTable table, List<AttributeType> attributeTypes) {
+		for (AttributeType attributeType: attributeTypes) {
+			if (table.hasLdapAttribute(attributeType.getName())) {
+				continue;
+			}
+			String icfAttributeName = toIcfAttributeName(attributeType.getName());
+			ObjectClassAttributeTable.AttributeBinding binding = table.findIcfAttribute(icfAttributeName);
+			if (binding == null || binding.getAttributeType() != attributeType) {
+				binding = new ObjectClassAttributeTable.AttributeBinding(attributeType, icfAttributeName, 
+						binding == null ? null : binding.getAttributeInfo(),
+						binding == null ? null : binding.getIcfType(), 
+						detectBinaryAttribute(attributeType.getName()));
+			}
+			for (String name: attributeType.getNames()) {
+				table.addLdapAttribute(name, binding);
+			}
+		}
+	}
+	
 	public AttributeType createFauxAttributeType(String attributeName) {
 		MutableAttributeType mutableLdapAttributeType = new MutableAttributeType(attributeName);
 		mutableLdapAttributeType.setNames(attributeName);
@@ -518,99 +812,42 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 	}
 	
 	protected Value<Object> wrapInLdapValueClass(AttributeType ldapAttributeType, Object icfAttributeValue) {
-		String syntaxOid = ldapAttributeType.getSyntaxOid();
+		return getValueConverter(ldapAttributeType).toLdapValue(ldapAttributeType, icfAttributeValue);
+	}
+	
+	/**
+	 * Returns value converter for the attribute type. The converter is determined by attribute syntax.
+	 * It is determined only once for each attribute type, then it is remembered.
+	 */
+	public ValueConverter getValueConverter(AttributeType ldapAttributeType) {
+		if (ldapAttributeType == null) {
+			// We have no definition for this attribute. Assume string.
+			return ValueConverter.STRING;
+		}
+		ValueConverter converter = valueConverters.get(ldapAttributeType.getOid());
+		if (converter == null) {
+			converter = createValueConverter(ldapAttributeType.getSyntaxOid());
+			LOG.ok("Using {0} value converter for attribute {1} (syntax {2})", converter, ldapAttributeType.getName(), ldapAttributeType.getSyntaxOid());
+			valueConverters.putIfAbsent(ldapAttributeType.getOid(), converter);
+		}
+		return converter;
+	}
+	
+	protected ValueConverter createValueConverter(String syntaxOid) {
 		if (SchemaConstants.GENERALIZED_TIME_SYNTAX.equals(syntaxOid)) {
-			if (icfAttributeValue instanceof Long) {
-				try {
-					return (Value)new StringValue(ldapAttributeType, LdapUtil.toGeneralizedTime((Long)icfAttributeValue, acceptsFractionalGeneralizedTime()));
-				} catch (LdapInvalidAttributeValueException e) {
-					throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}
-			} else {
-				try {
-					return (Value)new StringValue(ldapAttributeType, icfAttributeValue.toString());
-				} catch (LdapInvalidAttributeValueException e) {
-					throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}				
-			}
-		} else if (icfAttributeValue instanceof Boolean) {
-			LOG.ok("Converting to LDAP: {0} ({1}): boolean", ldapAttributeType.getName(), syntaxOid);
-			try {
-				return (Value)new StringValue(ldapAttributeType, icfAttributeValue.toString().toUpperCase());
-			} catch (LdapInvalidAttributeValueException e) {
-				throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-						+"; attributeType="+ldapAttributeType, e);
-			}
-		} else if (icfAttributeValue instanceof GuardedString) {
-			try {
-				return (Value)new GuardedStringValue(ldapAttributeType, (GuardedString) icfAttributeValue);
-			} catch (LdapInvalidAttributeValueException e) {
-				throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-						+"; attributeType="+ldapAttributeType, e);
-			}
+			return new ValueConverter.GeneralizedTimeConverter(acceptsFractionalGeneralizedTime());
+		} else if (SchemaConstants.BOOLEAN_SYNTAX.equals(syntaxOid)) {
+			return ValueConverter.BOOLEAN;
+		} else if (isIntegerSyntax(syntaxOid)) {
+			return ValueConverter.INTEGER;
+		} else if (isLongSyntax(syntaxOid)) {
+			return ValueConverter.LONG;
 		} else if (isBinarySyntax(syntaxOid)) {
-			LOG.ok("Converting to LDAP: {0} ({1}): explicit binary", ldapAttributeType.getName(), syntaxOid);
-			
-			if (icfAttributeValue instanceof byte[]) {
-				try {
-					// Do NOT set attributeType in the Value in this case.
-					// The attributeType might not match the Value class
-					// e.g. human-readable jpegPhoto attribute will expect StringValue
-					return (Value)new BinaryValue(null, (byte[])icfAttributeValue);
-				} catch (LdapInvalidAttributeValueException e) {
-					throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}
-			} else if (icfAttributeValue instanceof String) {
-				// this can happen for userPassword
-				byte[] bytes;
-				try {
-					bytes = ((String)icfAttributeValue).getBytes("UTF-8");
-				} catch (UnsupportedEncodingException e) {
-					throw new IllegalArgumentException("Cannot encode attribute value to UTF-8 for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}
-				try {
-					// Do NOT set attributeType in the Value in this case.
-					// The attributeType might not match the Value class
-					// e.g. human-readable jpegPhoto attribute will expect StringValue
-					return (Value)new BinaryValue(null, bytes);
-				} catch (LdapInvalidAttributeValueException e) {
-					throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}
-			} else {
-				throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": expected byte[] but got "+icfAttributeValue.getClass()
-						+"; attributeType="+ldapAttributeType);
-			}
-		} else if (!isBinaryAttribute(syntaxOid)) {
-			LOG.ok("Converting to LDAP: {0} ({1}): explicit string", ldapAttributeType.getName(), syntaxOid);
-			try {
-				return (Value)new StringValue(ldapAttributeType, icfAttributeValue.toString());
-			} catch (LdapInvalidAttributeValueException e) {
-				throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-						+"; attributeType="+ldapAttributeType, e);
-			}
+			return ValueConverter.BINARY;
+		} else if (isStringSyntax(syntaxOid)) {
+			return ValueConverter.STRING;
 		} else {
-			if (icfAttributeValue instanceof byte[]) {
-				LOG.ok("Converting to LDAP: {0} ({1}): detected binary", ldapAttributeType.getName(), syntaxOid);
-				try {
-					return (Value)new BinaryValue(ldapAttributeType, (byte[])icfAttributeValue);
-				} catch (LdapInvalidAttributeValueException e) {
-					throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}
-			} else {
-				LOG.ok("Converting to LDAP: {0} ({1}): detected string", ldapAttributeType.getName(), syntaxOid);
-				try {
-					return (Value)new StringValue(ldapAttributeType, icfAttributeValue.toString());
-				} catch (LdapInvalidAttributeValueException e) {
-					throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
-							+"; attributeType="+ldapAttributeType, e);
-				}
-			}
+			return ValueConverter.DETECT;
 		}
 	}
 	
@@ -671,40 +908,8 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		}
 		if (OperationalAttributeInfos.PASSWORD.is(icfAttributeName)) {
 			return new GuardedString(ldapValue.getString().toCharArray());
-		} else {
-			String syntaxOid = null;
-			if (ldapAttributeType != null) {
-				syntaxOid = ldapAttributeType.getSyntaxOid();
-			}
-			if (SchemaConstants.GENERALIZED_TIME_SYNTAX.equals(syntaxOid)) {
-				try {
-					GeneralizedTime gt = new GeneralizedTime(ldapValue.getString());
-					return gt.getCalendar().getTimeInMillis();
-				} catch (ParseException e) {
-					throw new InvalidAttributeValueException("Wrong generalized time format in LDAP attribute "+ldapAttributeName+": "+e.getMessage(), e);
-				}
-			} else if (SchemaConstants.BOOLEAN_SYNTAX.equals(syntaxOid)) {
-				return Boolean.parseBoolean(ldapValue.getString());
-			} else if (isIntegerSyntax(syntaxOid)) {
-				return Integer.parseInt(ldapValue.getString());
-			} else if (isLongSyntax(syntaxOid)) {
-				return Long.parseLong(ldapValue.getString());
-			} else if (isBinarySyntax(syntaxOid)) {
-				LOG.ok("Converting to ICF: {0} (syntax {1}, value {2}): explicit binary", ldapAttributeName, syntaxOid, ldapValue.getClass());
-				return ldapValue.getBytes();
-			} else if (isStringSyntax(syntaxOid)) {
-				LOG.ok("Converting to ICF: {0} (syntax {1}, value {2}): explicit string", ldapAttributeName, syntaxOid, ldapValue.getClass());
-				return ldapValue.getString();
-			} else {
-				if (ldapValue instanceof StringValue) {
-					LOG.ok("Converting to ICF: {0} (syntax {1}, value {2}): detected string", ldapAttributeName, syntaxOid, ldapValue.getClass());
-					return ldapValue.getString();
-				} else {
-					LOG.ok("Converting to ICF: {0} (syntax {1}, value {2}): detected binary", ldapAttributeName, syntaxOid, ldapValue.getClass());
-					return ldapValue.getBytes();
-				}
-			}
 		}
+		return getValueConverter(ldapAttributeType).toIcfValue(ldapValue, ldapAttributeName);
 	}
 
 	protected boolean isIntegerSyntax(String syntaxOid) {
@@ -854,6 +1059,58 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
         // try to ask the syntax about its status.
         return !syntax.isHumanReadable();
     }
+    
+    /**
+     * Same as isBinaryAttribute(), but it is using a table that is computed for all the
+     * attributes in the schema. This is used when decoding LDAP messages, which means for every
+     * attribute of every entry. Therefore it has to be fast.
+     * 
+     * Attribute options are taken into account: ";binary" option means binary attribute
+     * (RFC 4522), other options (such as ";range=0-1499") are ignored.
+     */
+    public boolean detectBinaryAttribute(String attributeId) {
+    	Map<String, Boolean> table = getBinaryAttributeTable();
+    	String key = attributeId.toLowerCase();
+    	Boolean binary = table.get(key);
+    	if (binary != null) {
+    		return binary;
+    	}
+    	int iSemicolon = key.indexOf(';');
+    	if (iSemicolon >= 0) {
+    		if (key.contains(";binary")) {
+    			return true;
+    		}
+    		binary = table.get(key.substring(0, iSemicolon));
+    		if (binary != null) {
+    			return binary;
+    		}
+    	}
+    	// Not in the schema. This is quite rare.
+    	return isBinaryAttribute(attributeId);
+    }
+    
+    private Map<String, Boolean> getBinaryAttributeTable() {
+    	Map<String, Boolean> table = binaryAttributeTable;
+    	if (table == null) {
+    		// Several threads may build the table at the same time. That does not matter,
+    		// the result is always the same.
+    		table = new HashMap<>();
+    		for (String stringAttributeName: STRING_ATTRIBUTE_NAMES) {
+    			table.put(stringAttributeName, Boolean.FALSE);
+    		}
+    		for (AttributeType attributeType: schemaManager.getAttributeTypeRegistry()) {
+    			Boolean binary = isBinaryAttribute(attributeType.getName());
+    			table.put(attributeType.getOid().toLowerCase(), binary);
+    			for (String name: attributeType.getNames()) {
+    				table.put(name.toLowerCase(), binary);
+    			}
+    		}
+    		LOG.ok("Built binary attribute table, {0} entries", table.size());
+    		table = Collections.unmodifiableMap(table);
+    		binaryAttributeTable = table;
+    	}
+    	return table;
+    }
 	
 	
     /**
@@ -901,7 +1158,7 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 			}
 		}
 		
-		if ((ldapAttributeType != null) && isBinaryAttribute( ldapAttributeName )) {
+		if ((ldapAttributeType != null) && detectBinaryAttribute( ldapAttributeName )) {
 			LOG.ok("Converting identifier to ICF: {0} (syntax {1}, value {2}): explicit binary", 
 			    ldapAttributeName, getSyntax(ldapAttributeType).getOid(), ldapValue.getClass());
 			
@@ -929,7 +1186,27 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 	}
 	
 	public ObjectClassInfo findObjectClassInfo(ObjectClass icfObjectClass) {
-		return icfSchema.findObjectClassInfo(icfObjectClass.getObjectClassValue());
+		return findObjectClassInfo(icfObjectClass.getObjectClassValue());
+	}
+	
+	/**
+	 * Same as Schema.findObjectClassInfo(), but the result is remembered.
+	 * The schema looks for the object class by iterating over all the object classes.
+	 * If there is no complete ConnId schema then the object class is translated on demand.
+	 */
+	private ObjectClassInfo findObjectClassInfo(String icfObjectClassType) {
+		ObjectClassInfo icfObjectClassInfo = icfObjectClassInfos.get(icfObjectClassType);
+		if (icfObjectClassInfo == null) {
+			if (icfSchema != null) {
+				icfObjectClassInfo = icfSchema.findObjectClassInfo(icfObjectClassType);
+			} else {
+				icfObjectClassInfo = translateObjectClass(icfObjectClassType);
+			}
+			if (icfObjectClassInfo != null) {
+				icfObjectClassInfos.putIfAbsent(icfObjectClassType, icfObjectClassInfo);
+			}
+		}
+		return icfObjectClassInfo;
 	}
 	
     /**
@@ -967,24 +1244,17 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 	public ConnectorObject toIcfObject(LdapNetworkConnection connection, ObjectClassInfo icfStructuralObjectClassInfo, Entry entry, String dn, AttributeHandler attributeHandler) {
 		LdapObjectClasses ldapObjectClasses = processObjectClasses(entry);
 		if (icfStructuralObjectClassInfo == null) {
-			icfStructuralObjectClassInfo = icfSchema.findObjectClassInfo(ldapObjectClasses.getLdapLowestStructuralObjectClass().getName());
+			icfStructuralObjectClassInfo = findObjectClassInfo(ldapObjectClasses.getLdapLowestStructuralObjectClass().getName());
 		}
+		EntryTranslationPlan plan = getTranslationPlan(icfStructuralObjectClassInfo, ldapObjectClasses);
 		ConnectorObjectBuilder cob = new ConnectorObjectBuilder();
 		if (dn == null) {
 			dn = getDn(entry);
 		}
 		cob.setName(dn);
-		cob.setObjectClass(new ObjectClass(icfStructuralObjectClassInfo.getType()));
-		
-		List<ObjectClassInfo> icfAuxiliaryObjectClassInfos = new ArrayList<>(ldapObjectClasses.getLdapAuxiliaryObjectClasses().size());
-		if (!ldapObjectClasses.getLdapAuxiliaryObjectClasses().isEmpty()) {
-			AttributeBuilder auxAttrBuilder = new AttributeBuilder();
-			auxAttrBuilder.setName(PredefinedAttributes.AUXILIARY_OBJECT_CLASS_NAME);
-			for (org.apache.directory.api.ldap.model.schema.ObjectClass ldapAuxiliaryObjectClass: ldapObjectClasses.getLdapAuxiliaryObjectClasses()) {
-				auxAttrBuilder.addValue(ldapAuxiliaryObjectClass.getName());
-				icfAuxiliaryObjectClassInfos.add(icfSchema.findObjectClassInfo(ldapAuxiliaryObjectClass.getName()));
-			}
-			cob.addAttribute(auxAttrBuilder.build());
+		cob.setObjectClass(plan.getIcfObjectClass());
+		if (plan.getAuxiliaryObjectClassAttribute() != null) {
+			cob.addAttribute(plan.getAuxiliaryObjectClassAttribute());
 		}
 		
 		String uidAttributeName = configuration.getUidAttribute();
@@ -1008,46 +1278,21 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		while (iterator.hasNext()) {
 			org.apache.directory.api.ldap.model.entry.Attribute ldapAttribute = iterator.next();
 			String ldapAttrName = getLdapAttributeName(ldapAttribute);
-//			LOG.ok("Processing attribute {0}", ldapAttrName);
-			if (!shouldTranslateAttribute(ldapAttrName)) {
-				LOG.ok("Should not translate attribute {0}, skipping", ldapAttrName);
-				continue;
-			}
-			AttributeType attributeType = schemaManager.getAttributeType(ldapAttrName);
-//			LOG.ok("Type for attribute {0}: {1}", ldapAttrName, attributeType);
-			String ldapAttributeNameFromSchema = ldapAttrName;
-			if (attributeType == null) {
-				if (!configuration.isAllowUnknownAttributes()) {
-					throw new InvalidAttributeValueException("Unknown LDAP attribute " + ldapAttrName + " (not present in LDAP schema)");
-				}
-			} else {
-				ldapAttributeNameFromSchema = attributeType.getName();
+			EntryTranslationPlan.AttributeStep step = plan.getStep(ldapAttrName);
+			if (step == null) {
+				step = plan.addStep(ldapAttrName, createAttributeStep(plan, ldapAttrName));
 			}
-			if (uidAttributeName.equals(ldapAttributeNameFromSchema)) {
+			if (step.isSkip()) {
 				continue;
 			}
-			Attribute icfAttribute = toIcfAttribute(connection, entry, ldapAttribute, attributeHandler);
-//			LOG.ok("ConnId attribute for {0}: {1}", ldapAttrName, icfAttribute);
-			if (icfAttribute == null) {
-				continue;
-			}
-			AttributeInfo attributeInfo = SchemaUtil.findAttributeInfo(icfStructuralObjectClassInfo, icfAttribute);
-			if (attributeInfo == null) {
-				for (ObjectClassInfo icfAuxiliaryObjectClassInfo: icfAuxiliaryObjectClassInfos) {
-					attributeInfo = SchemaUtil.findAttributeInfo(icfAuxiliaryObjectClassInfo, icfAttribute);
-					if (attributeInfo != null) {
-						break;
-					}
-				}
+			if (step.isUnknown()) {
+				throw new InvalidAttributeValueException("Unknown LDAP attribute " + ldapAttrName + " (not present in LDAP schema)");
 			}
-//			LOG.ok("ConnId attribute info for {0}: {1}", ldapAttrName, attributeInfo);
-			if (attributeInfo != null) {
-				// Avoid sending unknown attributes (such as createtimestamp)
+			Attribute icfAttribute = toIcfAttribute(connection, entry, ldapAttribute, step, attributeHandler);
+//			LOG.ok("ConnId attribute for {0}: {1}", ldapAttrName, icfAttribute);
+			if (icfAttribute != null) {
 				cob.addAttribute(icfAttribute);
-			} else {
-				LOG.ok("Attribute {0} is not part of ConnId schema, skipping", ldapAttrName);
 			}
-			
 		}
 		
 		extendConnectorObject(cob, entry, icfStructuralObjectClassInfo.getType());
@@ -1055,6 +1300,85 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		return cob.build();
 	}
 	
+	private EntryTranslationPlan getTranslationPlan(ObjectClassInfo icfStructuralObjectClassInfo, LdapObjectClasses ldapObjectClasses) {
+		StringBuilder keyBuilder = new StringBuilder(icfStructuralObjectClassInfo.getType());
+		for (org.apache.directory.api.ldap.model.schema.ObjectClass ldapAuxiliaryObjectClass: ldapObjectClasses.getLdapAuxiliaryObjectClasses()) {
+			keyBuilder.append('+').append(ldapAuxiliaryObjectClass.getName());
+		}
+		String key = keyBuilder.toString();
+		EntryTranslationPlan plan = translationPlans.get(key);
+		if (plan == null) {
+			plan = createTranslationPlan(icfStructuralObjectClassInfo, ldapObjectClasses);
+			EntryTranslationPlan existingPlan = translationPlans.putIfAbsent(key, plan);
+			if (existingPlan != null) {
+				plan = existingPlan;
+			}
+		}
+		return plan;
+	}
+	
+	private EntryTranslationPlan createTranslationPlan(ObjectClassInfo icfStructuralObjectClassInfo, LdapObjectClasses ldapObjectClasses) {
+		List<ObjectClassAttributeTable> auxiliaryAttributeTables = new ArrayList<>(ldapObjectClasses.getLdapAuxiliaryObjectClasses().size());
+		Attribute auxiliaryObjectClassAttribute = null;
+		if (!ldapObjectClasses.getLdapAuxiliaryObjectClasses().isEmpty()) {
+			AttributeBuilder auxAttrBuilder = new AttributeBuilder();
+			auxAttrBuilder.setName(PredefinedAttributes.AUXILIARY_OBJECT_CLASS_NAME);
+			for (org.apache.directory.api.ldap.model.schema.ObjectClass ldapAuxiliaryObjectClass: ldapObjectClasses.getLdapAuxiliaryObjectClasses()) {
+				auxAttrBuilder.addValue(ldapAuxiliaryObjectClass.getName());
+				ObjectClassInfo icfAuxiliaryObjectClassInfo = findObjectClassInfo(ldapAuxiliaryObjectClass.getName());
+				if (icfAuxiliaryObjectClassInfo != null) {
+					auxiliaryAttributeTables.add(getAttributeTable(icfAuxiliaryObjectClassInfo));
+				}
+			}
+			auxiliaryObjectClassAttribute = auxAttrBuilder.build();
+		}
+		EntryTranslationPlan plan = new EntryTranslationPlan(icfStructuralObjectClassInfo, auxiliaryObjectClassAttribute, 
+				getAttributeTable(icfStructuralObjectClassInfo), auxiliaryAttributeTables);
+		LOG.ok("Created {0}", plan);
+		return plan;
+	}
+	
+	private EntryTranslationPlan.AttributeStep createAttributeStep(EntryTranslationPlan plan, String ldapAttrName) {
+		if (!shouldTranslateAttribute(ldapAttrName)) {
+			LOG.ok("Should not translate attribute {0}, skipping", ldapAttrName);
+			return EntryTranslationPlan.AttributeStep.skip();
+		}
+		AttributeType attributeType;
+		ObjectClassAttributeTable.AttributeBinding binding = plan.getStructuralAttributeTable().findLdapAttribute(ldapAttrName);
+		if (binding != null) {
+			attributeType = binding.getAttributeType();
+		} else {
+			attributeType = schemaManager.getAttributeType(ldapAttrName);
+		}
+		String ldapAttributeNameFromSchema = ldapAttrName;
+		if (attributeType == null) {
+			if (!configuration.isAllowUnknownAttributes()) {
+				return EntryTranslationPlan.AttributeStep.unknown();
+			}
+		} else {
+			ldapAttributeNameFromSchema = attributeType.getName();
+		}
+		if (configuration.getUidAttribute().equals(ldapAttributeNameFromSchema)) {
+			return EntryTranslationPlan.AttributeStep.skip();
+		}
+		String icfAttributeName = toIcfAttributeName(ldapAttributeNameFromSchema);
+		AttributeInfo attributeInfo = plan.getStructuralAttributeTable().findAttributeInfo(icfAttributeName);
+		if (attributeInfo == null) {
+			for (ObjectClassAttributeTable auxiliaryAttributeTable: plan.getAuxiliaryAttributeTables()) {
+				attributeInfo = auxiliaryAttributeTable.findAttributeInfo(icfAttributeName);
+				if (attributeInfo != null) {
+					break;
+				}
+			}
+		}
+		if (attributeInfo == null) {
+			// Avoid sending unknown attributes (such as createtimestamp)
+			LOG.ok("Attribute {0} is not part of ConnId schema, skipping", ldapAttrName);
+			return EntryTranslationPlan.AttributeStep.skip();
+		}
+		return EntryTranslationPlan.AttributeStep.translate(attributeType, ldapAttributeNameFromSchema, icfAttributeName);
+	}
+	
 	public String getDn(Entry entry) {
 		return entry.getDn().getName();
 	}
@@ -1100,12 +1424,44 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		// Nothing to do here. This is supposed to be overriden by subclasses.
 	}
 
+	/**
+	 * Resolves object classes of the entry. There is usually just a handful of distinct
+	 * object class combinations in the directory, therefore the result is remembered.
+	 * The returned object must not be modified, it is shared.
+	 */
 	private LdapObjectClasses processObjectClasses(Entry entry) {
-		LdapObjectClasses ocs = new LdapObjectClasses();
 		org.apache.directory.api.ldap.model.entry.Attribute objectClassAttribute = entry.get(SchemaConstants.OBJECT_CLASS_AT);
 		if (objectClassAttribute == null) {
 			throw new InvalidAttributeValueException("No object class attribute in entry "+entry.getDn());
 		}
+		String key = getObjectClassSetKey(objectClassAttribute);
+		LdapObjectClasses ocs = objectClassSets.get(key);
+		if (ocs == null) {
+			ocs = processObjectClasses(entry, objectClassAttribute);
+			if (objectClassSets.size() < MAX_OBJECT_CLASS_SETS) {
+				objectClassSets.putIfAbsent(key, ocs);
+			}
+		}
+		return ocs;
+	}
+	
+	private String getObjectClassSetKey(org.apache.directory.api.ldap.model.entry.Attribute objectClassAttribute) {
+		String[] objectClassNames = new String[objectClassAttribute.size()];
+		int i = 0;
+		for (Value<?> objectClassVal: objectClassAttribute) {
+			objectClassNames[i] = objectClassVal.getString().trim().toLowerCase();
+			i++;
+		}
+		Arrays.sort(objectClassNames);
+		StringBuilder sb = new StringBuilder();
+		for (String objectClassName: objectClassNames) {
+			sb.append(objectClassName).append(',');
+		}
+		return sb.toString();
+	}
+
+	private LdapObjectClasses processObjectClasses(Entry entry, org.apache.directory.api.ldap.model.entry.Attribute objectClassAttribute) {
+		LdapObjectClasses ocs = new LdapObjectClasses();
 		for (Value<?> objectClassVal: objectClassAttribute) {
 			String objectClassString = objectClassVal.getString();
 			org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass;
@@ -1229,21 +1585,13 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
         return resSb.toString();
     }
 
-	private Attribute toIcfAttribute(LdapNetworkConnection connection, Entry entry, org.apache.directory.api.ldap.model.entry.Attribute ldapAttribute, AttributeHandler attributeHandler) {
+	private Attribute toIcfAttribute(LdapNetworkConnection connection, Entry entry, org.apache.directory.api.ldap.model.entry.Attribute ldapAttribute, 
+			EntryTranslationPlan.AttributeStep step, AttributeHandler attributeHandler) {
 		AttributeBuilder ab = new AttributeBuilder();
 		String ldapAttributeName = getLdapAttributeName(ldapAttribute);
-		AttributeType ldapAttributeType = schemaManager.getAttributeType(ldapAttributeName);
-		String ldapAttributeNameFromSchema;
-		if (ldapAttributeType == null) {
-			if (configuration.isAllowUnknownAttributes()) {
-				ldapAttributeNameFromSchema = ldapAttributeName;
-			} else {
-				throw new InvalidAttributeValueException("Unknown LDAP attribute " + ldapAttributeName + " (not present in LDAP schema)");
-			}
-		} else {
-			ldapAttributeNameFromSchema = ldapAttributeType.getName();
-		}
-		String icfAttributeName = toIcfAttributeName(ldapAttributeNameFromSchema);
+		AttributeType ldapAttributeType = step.getAttributeType();
+		String ldapAttributeNameFromSchema = step.getLdapAttributeNameFromSchema();
+		String icfAttributeName = step.getIcfAttributeName();
 		ab.setName(icfAttributeName);
 		if (attributeHandler != null) {
 			attributeHandler.handle(connection, entry, ldapAttribute, ab);
@@ -1288,7 +1636,7 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 			return null;
 		}
 		try {
-			return new Dn(stringDn);
+			return dnCache.getDn(stringDn);
 		} catch (LdapInvalidDnException e) {
 			throw new InvalidAttributeValueException("Invalid DN '"+stringDn+"': "+e.getMessage(), e);
 		}
@@ -1313,7 +1661,7 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 			return null;
 		}
 		try {
-			return new Dn(schemaManager, stringDn);
+			return dnCache.getSchemaAwareDn(stringDn);
 		} catch (LdapInvalidDnException e) {
 			throw new InvalidAttributeValueException("Invalid DN '"+stringDn+"': "+e.getMessage(), e);
 		}
@@ -1327,12 +1675,8 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 		if (dn.isSchemaAware()) {
 			return dn;
 		}
-		try {
-			dn.apply(schemaManager);
-		} catch (LdapInvalidDnException e) {
-			throw new InvalidAttributeValueException("Invalid DN '"+dn+"': "+e.getMessage(), e);
-		}
-		return dn;
+		// Do not apply schema to the original DN. It may be shared (see DnCache).
+		return toSchemaAwareDn(dn.getName());
 	}
 
 	/**
@@ -1360,33 +1704,7 @@ public abstract class AbstractSchemaTranslator<C extends AbstractLdapConfigurati
 
 	private boolean hasAttribute(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass,
 			String attributeName) {
-		if (hasAttribute(ldapObjectClass.getMustAttributeTypes(), attributeName) ||
-				hasAttribute(ldapObjectClass.getMayAttributeTypes(), attributeName)) {
-			return true;
-		}
-		for (org.apache.directory.api.ldap.model.schema.ObjectClass superior: ldapObjectClass.getSuperiors()) {
-			if (superior.getName().equalsIgnoreCase(SchemaConstants.TOP_OC)) {
-				// Do not even try top object class. Standard top objectclass has nothing to offer.
-				// And some non-standard (e.g. AD) definitions will only screw everything up as they
-				// contain definition for attributes that are not really meaningful.
-				continue;
-			}
-			if (hasAttribute(superior, attributeName)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	private boolean hasAttribute(List<AttributeType> attrTypeList, String attributeName) {
-		for (AttributeType attrType: attrTypeList) {
-			for (String name: attrType.getNames()) {
-				if (attributeName.equalsIgnoreCase(name)) {
-					return true;
-				}
-			}			
-		}
-		return false;
+		return getAttributeTable(ldapObjectClass).hasLdapAttribute(attributeName);
 	}
 	
 	public String[] getOperationalAttributes() {
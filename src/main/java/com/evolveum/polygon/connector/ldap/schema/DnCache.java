@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+/**
+ * Cache of parsed DNs, indexed by the DN string.
+ *
+ * Parsing DNs is surprisingly expensive, especially schema-aware parsing that also
+ * normalizes all the RDN values. And we parse the same DNs over and over again:
+ * base context, server base contexts, group members and so on.
+ *
+ * The cached Dn instances are shared. Dn is immutable (except for the apply() method,
+ * which must not be used on cached instances).
+ *
+ * The cache is bounded. If it gets full then the least recently used entries are evicted.
+ * Parsed DN does not depend on the entry, therefore the cached DNs never get stale.
+ * But DNs of renamed and deleted entries are not likely to be used again, therefore
+ * they are invalidated to make room for other DNs.
+ */
+public class DnCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private final SchemaManager schemaManager;
+	private final Map<String, Dn> plainDns;
+	private final Map<String, Dn> schemaAwareDns;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public DnCache(SchemaManager schemaManager) {
+		this(schemaManager, DEFAULT_MAX_SIZE);
+	}
+
+	public DnCache(SchemaManager schemaManager, int maxSize) {
+		super();
+		this.schemaManager = schemaManager;
+		this.plainDns = createMap(maxSize);
+		this.schemaAwareDns = createMap(maxSize);
+	}
+
+	private Map<String, Dn> createMap(final int maxSize) {
+		return new LinkedHashMap<String, Dn>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Dn> eldest) {
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns DN that is not schema-aware.
+	 */
+	public Dn getDn(String stringDn) throws LdapInvalidDnException {
+		Dn dn = get(plainDns, stringDn);
+		if (dn != null) {
+			return dn;
+		}
+		dn = new Dn(stringDn);
+		put(plainDns, stringDn, dn);
+		return dn;
+	}
+
+	/**
+	 * Returns schema-aware DN. Such DN contains normalized form of all the RDNs.
+	 */
+	public Dn getSchemaAwareDn(String stringDn) throws LdapInvalidDnException {
+		Dn dn = get(schemaAwareDns, stringDn);
+		if (dn != null) {
+			return dn;
+		}
+		dn = new Dn(schemaManager, stringDn);
+		put(schemaAwareDns, stringDn, dn);
+		return dn;
+	}
+
+	private Dn get(Map<String, Dn> map, String stringDn) {
+		Dn dn;
+		synchronized (map) {
+			dn = map.get(stringDn);
+		}
+		if (dn != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return dn;
+	}
+
+	private void put(Map<String, Dn> map, String stringDn, Dn dn) {
+		// DNs are parsed outside of the lock. If two threads parse the same DN
+		// then the later one wins. Both DNs are equivalent anyway.
+		synchronized (map) {
+			map.put(stringDn, dn);
+		}
+	}
+
+	/**
+	 * Removes the DN and all its descendants from the cache. This is used
+	 * when the entry is renamed or deleted.
+	 */
+	public void invalidate(Dn dn) {
+		if (dn == null) {
+			return;
+		}
+		invalidate(plainDns, dn);
+		if (schemaManager != null) {
+			try {
+				invalidate(schemaAwareDns, dn.isSchemaAware() ? dn : new Dn(schemaManager, dn.getName()));
+			} catch (LdapInvalidDnException e) {
+				// Nothing to invalidate, such DN cannot be in the cache
+			}
+		}
+	}
+
+	private void invalidate(Map<String, Dn> map, Dn dn) {
+		synchronized (map) {
+			Iterator<Dn> iterator = map.values().iterator();
+			while (iterator.hasNext()) {
+				Dn cachedDn = iterator.next();
+				if (cachedDn.equals(dn) || cachedDn.isDescendantOf(dn)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (plainDns) {
+			plainDns.clear();
+		}
+		synchronized (schemaAwareDns) {
+			schemaAwareDns.clear();
+		}
+	}
+
+	public int size() {
+		int size;
+		synchronized (plainDns) {
+			size = plainDns.size();
+		}
+		synchronized (schemaAwareDns) {
+			size += schemaAwareDns.size();
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns hit ratio in percents.
+	 */
+	public long getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		if (total == 0) {
+			return 0;
+		}
+		return h * 100 / total;
+	}
+
+	@Override
+	public String toString() {
+		return "DnCache(size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get()
+				+ ", evictions=" + evictions.get() + ", hitRatio=" + getHitRatio() + "%)";
+	}
+
+}
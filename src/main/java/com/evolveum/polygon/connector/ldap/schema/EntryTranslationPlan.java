@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
+
+/**
+ * Plan for translation of LDAP entries to connector objects.
+ *
+ * There is one plan for each combination of structural object class and auxiliary
+ * object classes. Everything that depends only on the object classes is resolved once
+ * and stored in the plan: ConnId object class, auxiliary object class attribute, attribute
+ * lookup tables. The plan also remembers how to process each LDAP attribute (attribute
+ * type, ConnId name, whether it should be skipped). These steps are created when the
+ * attribute is seen for the first time, so the plan adapts to the attributes that the
+ * server actually returns.
+ *
+ * Translation of an entry is then just a walk through the entry attributes with one
+ * step lookup for each attribute.
+ *
+ * The plan is thread-safe. The steps are immutable and the step map is concurrent.
+ */
+public class EntryTranslationPlan {
+
+	private final ObjectClassInfo icfStructuralObjectClassInfo;
+	private final ObjectClass icfObjectClass;
+	private final Attribute auxiliaryObjectClassAttribute;
+	private final ObjectClassAttributeTable structuralAttributeTable;
+	private final List<ObjectClassAttributeTable> auxiliaryAttributeTables;
+	private final ConcurrentMap<String, AttributeStep> steps = new ConcurrentHashMap<>();
+
+	EntryTranslationPlan(ObjectClassInfo icfStructuralObjectClassInfo, Attribute auxiliaryObjectClassAttribute,
+			ObjectClassAttributeTable structuralAttributeTable, List<ObjectClassAttributeTable> auxiliaryAttributeTables) {
+		super();
+		this.icfStructuralObjectClassInfo = icfStructuralObjectClassInfo;
+		this.icfObjectClass = new ObjectClass(icfStructuralObjectClassInfo.getType());
+		this.auxiliaryObjectClassAttribute = auxiliaryObjectClassAttribute;
+		this.structuralAttributeTable = structuralAttributeTable;
+		this.auxiliaryAttributeTables = auxiliaryAttributeTables;
+	}
+
+	public ObjectClassInfo getIcfStructuralObjectClassInfo() {
+		return icfStructuralObjectClassInfo;
+	}
+
+	public ObjectClass getIcfObjectClass() {
+		return icfObjectClass;
+	}
+
+	/**
+	 * Returns attribute that lists auxiliary object classes. Returns null if there are none.
+	 * ConnId attributes are immutable, therefore the same attribute can be used in all the objects.
+	 */
+	public Attribute getAuxiliaryObjectClassAttribute() {
+		return auxiliaryObjectClassAttribute;
+	}
+
+	public ObjectClassAttributeTable getStructuralAttributeTable() {
+		return structuralAttributeTable;
+	}
+
+	public List<ObjectClassAttributeTable> getAuxiliaryAttributeTables() {
+		return auxiliaryAttributeTables;
+	}
+
+	AttributeStep getStep(String ldapAttributeName) {
+		return steps.get(ldapAttributeName);
+	}
+
+	AttributeStep addStep(String ldapAttributeName, AttributeStep step) {
+		AttributeStep existingStep = steps.putIfAbsent(ldapAttributeName, step);
+		return existingStep == null ? step : existingStep;
+	}
+
+	@Override
+	public String toString() {
+		return "EntryTranslationPlan(" + icfStructuralObjectClassInfo.getType()
+				+ (auxiliaryObjectClassAttribute == null ? "" : " + " + auxiliaryObjectClassAttribute.getValue())
+				+ ": " + steps.size() + " steps)";
+	}
+
+	/**
+	 * How to translate one LDAP attribute.
+	 */
+	static class AttributeStep {
+
+		private final boolean skip;
+		private final boolean unknown;
+		private final AttributeType attributeType;
+		private final String ldapAttributeNameFromSchema;
+		private final String icfAttributeName;
+
+		private AttributeStep(boolean skip, boolean unknown, AttributeType attributeType,
+				String ldapAttributeNameFromSchema, String icfAttributeName) {
+			super();
+			this.skip = skip;
+			this.unknown = unknown;
+			this.attributeType = attributeType;
+			this.ldapAttributeNameFromSchema = ldapAttributeNameFromSchema;
+			this.icfAttributeName = icfAttributeName;
+		}
+
+		/**
+		 * The attribute is not translated at all.
+		 */
+		static AttributeStep skip() {
+			return new AttributeStep(true, false, null, null, null);
+		}
+
+		/**
+		 * The attribute is not in the LDAP schema and unknown attributes are not allowed.
+		 */
+		static AttributeStep unknown() {
+			return new AttributeStep(false, true, null, null, null);
+		}
+
+		static AttributeStep translate(AttributeType attributeType, String ldapAttributeNameFromSchema, String icfAttributeName) {
+			return new AttributeStep(false, false, attributeType, ldapAttributeNameFromSchema, icfAttributeName);
+		}
+
+		boolean isSkip() {
+			return skip;
+		}
+
+		boolean isUnknown() {
+			return unknown;
+		}
+
+		AttributeType getAttributeType() {
+			return attributeType;
+		}
+
+		String getLdapAttributeNameFromSchema() {
+			return ldapAttributeNameFromSchema;
+		}
+
+		String getIcfAttributeName() {
+			return icfAttributeName;
+		}
+	}
+
+}
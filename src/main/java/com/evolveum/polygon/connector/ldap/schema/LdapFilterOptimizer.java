@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+/**
+ * Simplifies LDAP filters before they are sent to the server.
+ *
+ * The filters are translated from ConnId filters exactly as they were composed.
+ * This may mean nested AND clauses, duplicate clauses and so on. Some servers (e.g.
+ * OpenLDAP or 389-ds) evaluate the filter literally in the specified order.
+ * Therefore the order of the clauses matters.
+ *
+ * The optimizer:
+ * <ul>
+ * <li>flattens nested AND and OR clauses,</li>
+ * <li>removes duplicate clauses,</li>
+ * <li>folds constant clauses: (objectClass=*) is true, (!(objectClass=*)) is false,</li>
+ * <li>detects contradictions: (&amp;(a=x)(!(a=x))) and two different values of single-valued attribute,</li>
+ * <li>orders AND clauses: indexed attributes first, then equality, substring, range, objectClass, presence, complex clauses.</li>
+ * </ul>
+ *
+ * Filters that can never match anything are replaced by (!(objectClass=*)).
+ * Use isFalse() to check for that. There is no point in sending such search to the server.
+ */
+public class LdapFilterOptimizer {
+
+	private final String[] indexedAttributes;
+
+	public LdapFilterOptimizer(String[] indexedAttributes) {
+		super();
+		this.indexedAttributes = indexedAttributes == null ? new String[0] : indexedAttributes;
+	}
+
+	public static ExprNode createTrue() {
+		return new PresenceNode(SchemaConstants.OBJECT_CLASS_AT);
+	}
+
+	public static ExprNode createFalse() {
+		return new NotNode(createTrue());
+	}
+
+	public static boolean isTrue(ExprNode node) {
+		if (node instanceof PresenceNode) {
+			return isObjectClass(getAttributeName((PresenceNode)node));
+		}
+		if (node instanceof AndNode) {
+			return ((AndNode)node).getChildren().isEmpty();
+		}
+		return false;
+	}
+
+	public static boolean isFalse(ExprNode node) {
+		if (node instanceof NotNode) {
+			return isTrue(((NotNode)node).getFirstChild());
+		}
+		if (node instanceof OrNode) {
+			return ((OrNode)node).getChildren().isEmpty();
+		}
+		return false;
+	}
+
+	public ExprNode optimize(ExprNode node) {
+		if (node instanceof AndNode) {
+			return optimizeAnd((AndNode)node);
+		} else if (node instanceof OrNode) {
+			return optimizeOr((OrNode)node);
+		} else if (node instanceof NotNode) {
+			return optimizeNot((NotNode)node);
+		} else {
+			return node;
+		}
+	}
+
+	private ExprNode optimizeAnd(AndNode andNode) {
+		List<ExprNode> children = new ArrayList<>();
+		for (ExprNode child: andNode.getChildren()) {
+			ExprNode optimizedChild = optimize(child);
+			if (optimizedChild instanceof AndNode) {
+				children.addAll(((AndNode)optimizedChild).getChildren());
+			} else {
+				children.add(optimizedChild);
+			}
+		}
+
+		List<ExprNode> newChildren = new ArrayList<>(children.size());
+		Set<String> seen = new HashSet<>();
+		for (ExprNode child: children) {
+			if (isTrue(child)) {
+				continue;
+			}
+			if (isFalse(child)) {
+				return createFalse();
+			}
+			if (seen.add(child.toString())) {
+				newChildren.add(child);
+			}
+		}
+
+		if (isContradiction(newChildren, seen)) {
+			return createFalse();
+		}
+		if (newChildren.isEmpty()) {
+			return createTrue();
+		}
+		if (newChildren.size() == 1) {
+			return newChildren.get(0);
+		}
+
+		// Stable sort. Clauses of the same rank stay in the original order.
+		Collections.sort(newChildren, new Comparator<ExprNode>() {
+			@Override
+			public int compare(ExprNode a, ExprNode b) {
+				return Integer.compare(rank(a), rank(b));
+			}
+		});
+		return new AndNode(newChildren);
+	}
+
+	private ExprNode optimizeOr(OrNode orNode) {
+		List<ExprNode> children = new ArrayList<>();
+		for (ExprNode child: orNode.getChildren()) {
+			ExprNode optimizedChild = optimize(child);
+			if (optimizedChild instanceof OrNode) {
+				children.addAll(((OrNode)optimizedChild).getChildren());
+			} else {
+				children.add(optimizedChild);
+			}
+		}
+
+		List<ExprNode> newChildren = new ArrayList<>(children.size());
+		Set<String> seen = new HashSet<>();
+		for (ExprNode child: children) {
+			if (isFalse(child)) {
+				continue;
+			}
+			if (isTrue(child)) {
+				return createTrue();
+			}
+			if (seen.add(child.toString())) {
+				newChildren.add(child);
+			}
+		}
+
+		if (newChildren.isEmpty()) {
+			return createFalse();
+		}
+		if (newChildren.size() == 1) {
+			return newChildren.get(0);
+		}
+		return new OrNode(newChildren);
+	}
+
+	private ExprNode optimizeNot(NotNode notNode) {
+		ExprNode child = optimize(notNode.getFirstChild());
+		if (isTrue(child)) {
+			return createFalse();
+		}
+		if (isFalse(child)) {
+			return createTrue();
+		}
+		if (child instanceof NotNode) {
+			return ((NotNode)child).getFirstChild();
+		}
+		return new NotNode(child);
+	}
+
+	private boolean isContradiction(List<ExprNode> andChildren, Set<String> seen) {
+		Map<String, Value<?>> singleValues = new HashMap<>();
+		for (ExprNode child: andChildren) {
+			if (child instanceof NotNode) {
+				// (&(a=x)(!(a=x)))
+				if (seen.contains(((NotNode)child).getFirstChild().toString())) {
+					return true;
+				}
+			} else if (child instanceof EqualityNode) {
+				// (&(a=x)(a=y)) where a is single-valued
+				EqualityNode<?> equalityNode = (EqualityNode<?>)child;
+				AttributeType attributeType = equalityNode.getAttributeType();
+				Value<?> value = equalityNode.getValue();
+				if (attributeType == null || !attributeType.isSingleValued() || value == null || !value.isSchemaAware()) {
+					// We cannot be sure here. Values that are not schema-aware are not normalized.
+					continue;
+				}
+				String key = attributeType.getOid();
+				Value<?> otherValue = singleValues.get(key);
+				if (otherValue == null) {
+					singleValues.put(key, value);
+				} else if (!otherValue.equals(value)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private int rank(ExprNode node) {
+		int base = indexedAttributes.length;
+		if (node instanceof EqualityNode) {
+			String attributeName = getAttributeName((LeafNode)node);
+			for (int i = 0; i < indexedAttributes.length; i++) {
+				if (indexedAttributes[i].equalsIgnoreCase(attributeName)) {
+					return i;
+				}
+			}
+			if (isObjectClass(attributeName)) {
+				// Almost always indexed, but it is not very selective
+				return base + 4;
+			}
+			return base;
+		}
+		if (node instanceof SubstringNode) {
+			return base + 1;
+		}
+		if (node instanceof GreaterEqNode || node instanceof LessEqNode) {
+			return base + 2;
+		}
+		if (node instanceof ApproximateNode) {
+			return base + 3;
+		}
+		if (node instanceof PresenceNode) {
+			return base + 5;
+		}
+		if (node instanceof AndNode || node instanceof OrNode) {
+			return base + 6;
+		}
+		if (node instanceof NotNode) {
+			// Negation cannot use index
+			return base + 8;
+		}
+		return base + 7;
+	}
+
+	private static String getAttributeName(LeafNode node) {
+		AttributeType attributeType = node.getAttributeType();
+		if (attributeType != null) {
+			return attributeType.getName();
+		}
+		return node.getAttribute();
+	}
+
+	private static boolean isObjectClass(String attributeName) {
+		return SchemaConstants.OBJECT_CLASS_AT.equalsIgnoreCase(attributeName)
+				|| SchemaConstants.OBJECT_CLASS_AT_OID.equals(attributeName);
+	}
+
+}
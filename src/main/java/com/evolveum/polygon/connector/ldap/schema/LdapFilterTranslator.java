@@ -72,6 +72,7 @@ public class LdapFilterTranslator<C extends AbstractLdapConfiguration> {
 
 	/**
 	 * Translate filter, also add AND statement for objectClass.
+	 * The resulting filter is optimized (see LdapFilterOptimizer).
 	 */
 	public ScopedFilter translate(Filter icfFilter, ObjectClass ldapObjectClass) {
 		ScopedFilter plainScopedFilter = translate(icfFilter);
@@ -83,12 +84,15 @@ public class LdapFilterTranslator<C extends AbstractLdapConfiguration> {
 		if (plainFilter == null) {
 			return new ScopedFilter(objectClassEqFilter, plainScopedFilter.getBaseDn());
 		}
+		ExprNode filter;
 		if (plainFilter instanceof AndNode) {
 			((AndNode)plainFilter).addNode(objectClassEqFilter);
-			return plainScopedFilter;
+			filter = plainFilter;
 		} else {
-			return new ScopedFilter(new AndNode(objectClassEqFilter, plainFilter), plainScopedFilter.getBaseDn()); 
+			filter = new AndNode(objectClassEqFilter, plainFilter);
 		}
+		LdapFilterOptimizer optimizer = new LdapFilterOptimizer(schemaTranslator.getConfiguration().getIndexedAttributes());
+		return new ScopedFilter(optimizer.optimize(filter), plainScopedFilter.getBaseDn());
 	}
 	
 	private EqualityNode<String> createObjectClassEqFilter(ObjectClass ldapObjectClass) {
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.identityconnectors.framework.common.objects.AttributeInfo;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
+
+/**
+ * Attribute lookup table for a single object class.
+ *
+ * The table indexes the attributes of LDAP object class (including superiors, but excluding top)
+ * by LDAP attribute names and the attributes of ConnId object class by ConnId attribute names.
+ * Both indexes are case-insensitive. The table is built once for every object class by
+ * the schema translator. It is immutable after that, therefore it can be used by several
+ * threads at once.
+ */
+public class ObjectClassAttributeTable {
+
+	private final org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass;
+	private final ObjectClassInfo icfObjectClassInfo;
+	private final Map<String, AttributeBinding> ldapAttributes = new HashMap<>();
+	private final Map<String, AttributeBinding> icfAttributes = new HashMap<>();
+
+	ObjectClassAttributeTable(org.apache.directory.api.ldap.model.schema.ObjectClass ldapObjectClass,
+			ObjectClassInfo icfObjectClassInfo) {
+		super();
+		this.ldapObjectClass = ldapObjectClass;
+		this.icfObjectClassInfo = icfObjectClassInfo;
+	}
+
+	public org.apache.directory.api.ldap.model.schema.ObjectClass getLdapObjectClass() {
+		return ldapObjectClass;
+	}
+
+	public ObjectClassInfo getIcfObjectClassInfo() {
+		return icfObjectClassInfo;
+	}
+
+	void addLdapAttribute(String ldapAttributeName, AttributeBinding binding) {
+		ldapAttributes.put(ldapAttributeName.toLowerCase(), binding);
+	}
+
+	void addIcfAttribute(String icfAttributeName, AttributeBinding binding) {
+		icfAttributes.put(icfAttributeName.toLowerCase(), binding);
+	}
+
+	/**
+	 * Returns true if the attribute is defined in the LDAP object class or in its superiors.
+	 */
+	public boolean hasLdapAttribute(String ldapAttributeName) {
+		return ldapAttributes.containsKey(ldapAttributeName.toLowerCase());
+	}
+
+	public AttributeBinding findLdapAttribute(String ldapAttributeName) {
+		return ldapAttributes.get(ldapAttributeName.toLowerCase());
+	}
+
+	public AttributeBinding findIcfAttribute(String icfAttributeName) {
+		return icfAttributes.get(icfAttributeName.toLowerCase());
+	}
+
+	/**
+	 * Returns ConnId attribute definition. Same as SchemaUtil.findAttributeInfo(), just faster.
+	 */
+	public AttributeInfo findAttributeInfo(String icfAttributeName) {
+		AttributeBinding binding = icfAttributes.get(icfAttributeName.toLowerCase());
+		if (binding == null) {
+			return null;
+		}
+		return binding.getAttributeInfo();
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectClassAttributeTable(" + (ldapObjectClass == null ? null : ldapObjectClass.getName())
+				+ ": " + ldapAttributes.size() + " LDAP attributes, " + icfAttributes.size() + " ConnId attributes)";
+	}
+
+	/**
+	 * Binding of LDAP attribute to ConnId attribute. Some parts may be null,
+	 * e.g. LDAP attribute that is not part of ConnId schema has no attribute info.
+	 */
+	public static class AttributeBinding {
+
+		private final AttributeType attributeType;
+		private final String icfAttributeName;
+		private final AttributeInfo attributeInfo;
+		private final Class<?> icfType;
+		private final boolean binary;
+
+		AttributeBinding(AttributeType attributeType, String icfAttributeName, AttributeInfo attributeInfo,
+				Class<?> icfType, boolean binary) {
+			super();
+			this.attributeType = attributeType;
+			this.icfAttributeName = icfAttributeName;
+			this.attributeInfo = attributeInfo;
+			this.icfType = icfType;
+			this.binary = binary;
+		}
+
+		public AttributeType getAttributeType() {
+			return attributeType;
+		}
+
+		public String getIcfAttributeName() {
+			return icfAttributeName;
+		}
+
+		public AttributeInfo getAttributeInfo() {
+			return attributeInfo;
+		}
+
+		public Class<?> getIcfType() {
+			return icfType;
+		}
+
+		public boolean isBinary() {
+			return binary;
+		}
+
+		@Override
+		public String toString() {
+			return "AttributeBinding(" + (attributeType == null ? null : attributeType.getName()) + " -> "
+					+ icfAttributeName + ", " + (icfType == null ? null : icfType.getSimpleName())
+					+ (binary ? ", binary" : "") + ")";
+		}
+	}
+
+}
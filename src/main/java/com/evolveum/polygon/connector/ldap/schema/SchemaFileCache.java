@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.serializer.SerializerUtil;
+
+import com.evolveum.polygon.connector.ldap.AbstractLdapConfiguration;
+import com.evolveum.polygon.connector.ldap.LdapUtil;
+
+/**
+ * Keeps the server schema and the translated ConnId schema in local files, so they survive
+ * connector instances and restarts.
+ *
+ * The files are identified by a fingerprint of the connector configuration (which includes
+ * the server identity and connector version) and by the version of the file format. The cached
+ * schema is valid only as long as the modifyTimestamp of the subschema subentry stays the same
+ * (see LdapUtil.readSchemaTimestamp()). Checking the timestamp is one cheap read, which is much
+ * less than fetching and parsing the whole schema. If the server does not provide the timestamp
+ * then the cache is not used at all.
+ *
+ * Directory API SchemaManager is not serializable. Therefore the entries that the schema loader
+ * reads from the server (root DSE and subschema subentry) are stored instead. Schema manager is
+ * loaded from these entries (see SchemaLoaderConnection). Translated ConnId schema is stored
+ * in a separate file.
+ *
+ * The cache is best-effort. Any error is just logged and the schema is loaded and translated
+ * in the usual way.
+ */
+public class SchemaFileCache {
+
+	private static final Log LOG = Log.getLog(SchemaFileCache.class);
+
+	private static final String FILE_PREFIX = "connector-ldap-schema-";
+	private static final String SCHEMA_FILE_SUFFIX = ".bin";
+	private static final String ENTRIES_FILE_SUFFIX = "-ldap.bin";
+	// Change the version when the content of the cached schema changes (e.g. new operation options)
+	private static final String FORMAT_VERSION = "connector-ldap-schema-cache-2";
+
+	private final File schemaFile;
+	private final File entriesFile;
+
+	private SchemaFileCache(File directory, String key) {
+		super();
+		this.schemaFile = new File(directory, FILE_PREFIX + key + SCHEMA_FILE_SUFFIX);
+		this.entriesFile = new File(directory, FILE_PREFIX + key + ENTRIES_FILE_SUFFIX);
+	}
+
+	/**
+	 * Returns cache for the specified configuration.
+	 * Returns null if the cache is disabled.
+	 */
+	public static SchemaFileCache getCache(AbstractLdapConfiguration configuration) {
+		String directoryName = configuration.getSchemaCacheDirectory();
+		if (directoryName == null || directoryName.isEmpty()) {
+			return null;
+		}
+		File directory = new File(directoryName);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			LOG.warn("Schema cache directory {0} does not exist and cannot be created, schema cache disabled", directoryName);
+			return null;
+		}
+		String fingerprint = LdapUtil.getConfigurationFingerprint(configuration);
+		if (fingerprint == null) {
+			return null;
+		}
+		String key = LdapUtil.hash(FORMAT_VERSION + ";" + fingerprint);
+		if (key == null) {
+			return null;
+		}
+		return new SchemaFileCache(directory, key);
+	}
+
+	/**
+	 * Returns cached ConnId schema if it was stored for the specified schema timestamp.
+	 * Returns null otherwise.
+	 */
+	public Schema getSchema(String schemaTimestamp) {
+		byte[] bytes = read(schemaFile, schemaTimestamp);
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			Schema schema = (Schema) SerializerUtil.deserializeBinaryObject(bytes);
+			LOG.ok("Using schema from cache file {0} (timestamp {1})", schemaFile, schemaTimestamp);
+			return schema;
+		} catch (RuntimeException e) {
+			LOG.warn("Cannot read schema cache file {0}, ignoring it: {1}", schemaFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores translated ConnId schema.
+	 */
+	public void putSchema(String schemaTimestamp, Schema schema) {
+		if (schemaTimestamp == null || schema == null) {
+			return;
+		}
+		try {
+			write(schemaFile, schemaTimestamp, SerializerUtil.serializeBinaryObject(schema));
+		} catch (RuntimeException e) {
+			LOG.warn("Cannot write schema cache file {0}: {1}", schemaFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns LDAP entries that the schema loader has read from the server, indexed by DN.
+	 * Returns null if there are no entries stored for the specified schema timestamp.
+	 */
+	public Map<String, Entry> getSchemaEntries(String schemaTimestamp) {
+		byte[] bytes = read(entriesFile, schemaTimestamp);
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			Map<String, Entry> entries = new HashMap<>();
+			int numberOfEntries = in.readInt();
+			for (int i = 0; i < numberOfEntries; i++) {
+				String dn = readString(in);
+				Entry entry = new DefaultEntry(new Dn(dn));
+				int numberOfAttributes = in.readInt();
+				for (int j = 0; j < numberOfAttributes; j++) {
+					String attributeId = readString(in);
+					String[] values = new String[in.readInt()];
+					for (int k = 0; k < values.length; k++) {
+						values[k] = readString(in);
+					}
+					entry.add(attributeId, values);
+				}
+				entries.put(dn, entry);
+			}
+			LOG.ok("Using LDAP schema from cache file {0} (timestamp {1})", entriesFile, schemaTimestamp);
+			return entries;
+		} catch (IOException | LdapException | RuntimeException e) {
+			LOG.warn("Cannot read schema cache file {0}, ignoring it: {1}", entriesFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores LDAP entries that the schema loader has read from the server, indexed by DN.
+	 * Only string values are stored, schema entries do not have anything else.
+	 */
+	public void putSchemaEntries(String schemaTimestamp, Map<String, Entry> entries) {
+		if (schemaTimestamp == null || entries == null || entries.isEmpty()) {
+			return;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> mapEntry: entries.entrySet()) {
+				writeString(out, mapEntry.getKey());
+				Entry entry = mapEntry.getValue();
+				out.writeInt(entry.size());
+				for (Attribute attribute: entry) {
+					writeString(out, attribute.getUpId());
+					out.writeInt(attribute.size());
+					for (Value<?> value: attribute) {
+						writeString(out, value.getString());
+					}
+				}
+			}
+			out.close();
+			write(entriesFile, schemaTimestamp, bytes.toByteArray());
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Cannot write schema cache file {0}: {1}", entriesFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns content of the file if it was stored for the specified schema timestamp.
+	 * Returns null otherwise.
+	 */
+	private byte[] read(File file, String schemaTimestamp) {
+		if (schemaTimestamp == null || !file.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			String formatVersion = in.readUTF();
+			if (!FORMAT_VERSION.equals(formatVersion)) {
+				LOG.ok("Schema cache file {0} has unsupported format {1}, ignoring it", file, formatVersion);
+				return null;
+			}
+			String cachedSchemaTimestamp = in.readUTF();
+			if (!schemaTimestamp.equals(cachedSchemaTimestamp)) {
+				LOG.ok("Schema cache file {0} is stale (cached timestamp {1}, server timestamp {2})",
+						file, cachedSchemaTimestamp, schemaTimestamp);
+				return null;
+			}
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return bytes;
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Cannot read schema cache file {0}, ignoring it: {1}", file, e.getMessage());
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Stores the content. The file is written to a temporary file first and then
+	 * it is moved in place. Therefore other connector instances never see partial file.
+	 */
+	private void write(File file, String schemaTimestamp, byte[] bytes) {
+		File tmpFile = null;
+		DataOutputStream out = null;
+		try {
+			tmpFile = File.createTempFile(FILE_PREFIX, ".tmp", file.getParentFile());
+			out = new DataOutputStream(new FileOutputStream(tmpFile));
+			out.writeUTF(FORMAT_VERSION);
+			out.writeUTF(schemaTimestamp);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.close();
+			out = null;
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			tmpFile = null;
+			LOG.ok("Stored schema in cache file {0} (timestamp {1})", file, schemaTimestamp);
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Cannot write schema cache file {0}: {1}", file, e.getMessage());
+		} finally {
+			closeQuietly(out);
+			if (tmpFile != null) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	// Schema definitions may be longer than writeUTF() can handle
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SchemaFileCache(" + schemaFile + ")";
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+/**
+ * Connection for DefaultSchemaLoader that records or replays the entries that the loader reads.
+ *
+ * DefaultSchemaLoader reads the schema by looking up root DSE and the subschema subentry.
+ * When the schema is loaded from the server, the recording connection passes all the calls
+ * to the real connection and it remembers the entries that were looked up. These entries
+ * are stored in the schema file cache. When the schema is loaded from the cache, the
+ * replaying connection returns the stored entries. Therefore the schema manager is built
+ * in exactly the same way, just without talking to the server.
+ *
+ * Replaying connection supports only the methods that DefaultSchemaLoader uses.
+ */
+public class SchemaLoaderConnection implements InvocationHandler {
+
+	private static final String METHOD_LOOKUP = "lookup";
+
+	private final LdapConnection connection;
+	private final Map<String, Entry> entries;
+
+	private SchemaLoaderConnection(LdapConnection connection, Map<String, Entry> entries) {
+		super();
+		this.connection = connection;
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns connection that passes all the calls to the real connection. Entries that are
+	 * looked up are put in the map, indexed by their DN.
+	 */
+	public static LdapConnection recording(LdapConnection connection, Map<String, Entry> entries) {
+		return createProxy(new SchemaLoaderConnection(connection, entries));
+	}
+
+	/**
+	 * Returns connection that looks up the entries in the map instead of the server.
+	 */
+	public static LdapConnection replaying(Map<String, Entry> entries) {
+		return createProxy(new SchemaLoaderConnection(null, entries));
+	}
+
+	private static LdapConnection createProxy(SchemaLoaderConnection handler) {
+		return (LdapConnection) Proxy.newProxyInstance(LdapConnection.class.getClassLoader(),
+				new Class<?>[] { LdapConnection.class }, handler);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (connection != null) {
+			return record(method, args);
+		}
+		return replay(proxy, method, args);
+	}
+
+	private Object record(Method method, Object[] args) throws Throwable {
+		Object result;
+		try {
+			result = method.invoke(connection, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		if (isLookup(method, args) && result != null) {
+			entries.put(((Dn)args[0]).getName(), (Entry)result);
+		}
+		return result;
+	}
+
+	private Object replay(Object proxy, Method method, Object[] args) {
+		if (isLookup(method, args)) {
+			return entries.get(((Dn)args[0]).getName());
+		}
+		switch (method.getName()) {
+			case "isConnected":
+			case "isAuthenticated":
+				return true;
+			case "getSchemaManager":
+				return null;
+			case "close":
+				return null;
+			case "toString":
+				return "SchemaLoaderConnection(" + entries.keySet() + ")";
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return args[0] == proxy;
+			default:
+				throw new UnsupportedOperationException("Method " + method.getName() + " is not supported when loading schema from cache");
+		}
+	}
+
+	private boolean isLookup(Method method, Object[] args) {
+		return METHOD_LOOKUP.equals(method.getName()) && args != null && args.length > 0 && args[0] instanceof Dn;
+	}
+
+}
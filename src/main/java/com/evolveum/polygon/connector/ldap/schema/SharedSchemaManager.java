@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
+
+/**
+ * Schema manager shared by all the connector instances that talk to the same server
+ * with the same configuration.
+ *
+ * Connector instances are pooled. Without sharing every instance in the pool would load,
+ * parse and keep its own copy of the schema. That is a lot of memory and time for big
+ * schemas (e.g. Active Directory).
+ *
+ * The schema manager is loaded only once, by the first instance that needs it. It is also
+ * patched only once, as a part of the loading. It must not be modified after that.
+ * Refresh is atomic: invalidate() throws away the current schema manager and the next
+ * instance that needs the schema loads a new one. Instances that still use the old schema
+ * manager keep using it until they ask for the schema again.
+ *
+ * The holder also remembers the timestamp of the server schema. The schema is not loaded
+ * again if the timestamp did not change. And it keeps the translated ConnId object classes,
+ * indexed by a hash of their LDAP definition. Object classes that did not change are not
+ * translated again when the schema is reloaded.
+ *
+ * Connector instances acquire the holder when initialized and release it when disposed.
+ * The holder is forgotten when the last instance releases it.
+ */
+public class SharedSchemaManager {
+
+	private static final Log LOG = Log.getLog(SharedSchemaManager.class);
+
+	private static final Map<String, SharedSchemaManager> REGISTRY = new HashMap<>();
+
+	private final String key;
+	private int referenceCount = 0;
+	private SchemaManager schemaManager = null;
+	private String schemaTimestamp = null;
+	private final ConcurrentMap<String, ObjectClassInfo> translatedObjectClasses = new ConcurrentHashMap<>();
+
+	private SharedSchemaManager(String key) {
+		super();
+		this.key = key;
+	}
+
+	public static SharedSchemaManager acquire(String key) {
+		synchronized (REGISTRY) {
+			SharedSchemaManager shared = REGISTRY.get(key);
+			if (shared == null) {
+				shared = new SharedSchemaManager(key);
+				REGISTRY.put(key, shared);
+			}
+			shared.referenceCount++;
+			LOG.ok("Acquired shared schema manager {0}, {1} references", key, shared.referenceCount);
+			return shared;
+		}
+	}
+
+	public void release() {
+		synchronized (REGISTRY) {
+			referenceCount--;
+			LOG.ok("Released shared schema manager {0}, {1} references", key, referenceCount);
+			if (referenceCount <= 0 && REGISTRY.get(key) == this) {
+				REGISTRY.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns current schema manager. Loads it using the loader if there is none.
+	 * Only one thread loads the schema, other threads wait for the result.
+	 * Timestamp of the server schema is recorded when the schema is loaded.
+	 */
+	public synchronized SchemaManager getSchemaManager(Loader loader) {
+		if (schemaManager == null) {
+			// Timestamp is read before the schema is loaded. If schema changes in between, then we just load it again next time.
+			schemaTimestamp = loader.readSchemaTimestamp();
+			schemaManager = loader.load(schemaTimestamp);
+		}
+		return schemaManager;
+	}
+
+	/**
+	 * Throws away the schema manager, so it is loaded again when needed.
+	 * The schema manager is thrown away only if it is still the one that the caller
+	 * knows about. Therefore several instances refreshing the schema at the same time
+	 * cause only one reload.
+	 */
+	public synchronized void invalidate(SchemaManager staleSchemaManager) {
+		if (staleSchemaManager != null && staleSchemaManager == schemaManager) {
+			schemaManager = null;
+		}
+	}
+
+	/**
+	 * Throws away the schema manager if the schema on the server has changed since it was loaded.
+	 * The schema has not changed if the current timestamp is the same as the timestamp that was
+	 * recorded when the schema was loaded. If the current timestamp is not known then we have
+	 * to assume that the schema has changed, but only if the caller has already used the schema
+	 * manager. Caller that does not know any schema manager yet just gets the current one.
+	 * Returns true if the caller should stop using the schema manager that it knows about.
+	 */
+	public synchronized boolean invalidateIfChanged(SchemaManager knownSchemaManager, String currentSchemaTimestamp) {
+		if (schemaManager == null) {
+			return true;
+		}
+		if (currentSchemaTimestamp == null) {
+			LOG.ok("Schema timestamp of {0} unknown", key);
+			invalidate(knownSchemaManager);
+			return true;
+		}
+		if (currentSchemaTimestamp.equals(schemaTimestamp)) {
+			LOG.ok("Schema of {0} not changed (timestamp {1})", key, currentSchemaTimestamp);
+			// Some other instance might have loaded the current schema already
+			return knownSchemaManager != schemaManager;
+		}
+		LOG.ok("Schema of {0} changed (timestamp {1} -> {2})", key, schemaTimestamp, currentSchemaTimestamp);
+		schemaManager = null;
+		return true;
+	}
+
+	/**
+	 * Translated ConnId object classes, indexed by hash of LDAP object class definition.
+	 * The map is not cleared when the schema manager is invalidated.
+	 */
+	public ConcurrentMap<String, ObjectClassInfo> getTranslatedObjectClasses() {
+		return translatedObjectClasses;
+	}
+
+	@Override
+	public String toString() {
+		return "SharedSchemaManager(" + key + ")";
+	}
+
+	/**
+	 * Loads and patches schema manager.
+	 */
+	public interface Loader {
+
+		/**
+		 * Returns modifyTimestamp of the server schema, null if not known.
+		 */
+		String readSchemaTimestamp();
+
+		/**
+		 * Loads schema manager. Schema timestamp is the one that was read before, it may be null.
+		 */
+		SchemaManager load(String schemaTimestamp);
+	}
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+
+import org.apache.directory.api.ldap.model.entry.BinaryValue;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.util.GeneralizedTime;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+
+import com.evolveum.polygon.connector.ldap.LdapUtil;
+
+/**
+ * Converts values of one kind of LDAP syntax between LDAP and ConnId.
+ *
+ * The converter is chosen once for every attribute type by the schema translator
+ * (see AbstractSchemaTranslator.getValueConverter()). Conversion of a value is then
+ * just a call to the converter, without any syntax OID comparisons.
+ *
+ * Converters are stateless and thread-safe.
+ */
+public abstract class ValueConverter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Strings, DNs and all the other syntaxes that are known to be string.
+	 */
+	public static final ValueConverter STRING = new ValueConverter("string") {
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			return ldapValue.getString();
+		}
+	};
+
+	/**
+	 * Octet strings (including GUIDs), certificates, photos and so on.
+	 */
+	public static final ValueConverter BINARY = new ValueConverter("binary") {
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			return ldapValue.getBytes();
+		}
+
+		@Override
+		protected Value<Object> toLdapValueOfType(AttributeType ldapAttributeType, Object icfAttributeValue) {
+			byte[] bytes;
+			if (icfAttributeValue instanceof byte[]) {
+				bytes = (byte[])icfAttributeValue;
+			} else if (icfAttributeValue instanceof String) {
+				// this can happen for userPassword
+				bytes = ((String)icfAttributeValue).getBytes(UTF8);
+			} else {
+				throw new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": expected byte[] but got "+icfAttributeValue.getClass()
+						+"; attributeType="+ldapAttributeType);
+			}
+			try {
+				// Do NOT set attributeType in the Value in this case.
+				// The attributeType might not match the Value class
+				// e.g. human-readable jpegPhoto attribute will expect StringValue
+				return (Value)new BinaryValue(null, bytes);
+			} catch (LdapInvalidAttributeValueException e) {
+				throw invalidValue(ldapAttributeType, e);
+			}
+		}
+	};
+
+	public static final ValueConverter BOOLEAN = new ValueConverter("boolean") {
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			return Boolean.parseBoolean(ldapValue.getString());
+		}
+	};
+
+	public static final ValueConverter INTEGER = new ValueConverter("integer") {
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			return Integer.parseInt(ldapValue.getString());
+		}
+	};
+
+	public static final ValueConverter LONG = new ValueConverter("long") {
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			return Long.parseLong(ldapValue.getString());
+		}
+	};
+
+	/**
+	 * Syntaxes that we do not know. The value class decides.
+	 */
+	public static final ValueConverter DETECT = new ValueConverter("detect") {
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			if (ldapValue instanceof StringValue) {
+				return ldapValue.getString();
+			} else {
+				return ldapValue.getBytes();
+			}
+		}
+	};
+
+	private final String name;
+
+	protected ValueConverter(String name) {
+		super();
+		this.name = name;
+	}
+
+	public abstract Object toIcfValue(Value<?> ldapValue, String ldapAttributeName);
+
+	public Value<Object> toLdapValue(AttributeType ldapAttributeType, Object icfAttributeValue) {
+		if (icfAttributeValue instanceof Boolean) {
+			return createStringValue(ldapAttributeType, icfAttributeValue.toString().toUpperCase());
+		}
+		if (icfAttributeValue instanceof GuardedString) {
+			try {
+				return (Value)new GuardedStringValue(ldapAttributeType, (GuardedString) icfAttributeValue);
+			} catch (LdapInvalidAttributeValueException e) {
+				throw invalidValue(ldapAttributeType, e);
+			}
+		}
+		return toLdapValueOfType(ldapAttributeType, icfAttributeValue);
+	}
+
+	protected Value<Object> toLdapValueOfType(AttributeType ldapAttributeType, Object icfAttributeValue) {
+		return createStringValue(ldapAttributeType, icfAttributeValue.toString());
+	}
+
+	protected static Value<Object> createStringValue(AttributeType ldapAttributeType, String stringValue) {
+		try {
+			return (Value)new StringValue(ldapAttributeType, stringValue);
+		} catch (LdapInvalidAttributeValueException e) {
+			throw invalidValue(ldapAttributeType, e);
+		}
+	}
+
+	protected static IllegalArgumentException invalidValue(AttributeType ldapAttributeType, Exception e) {
+		return new IllegalArgumentException("Invalid value for attribute "+ldapAttributeType.getName()+": "+e.getMessage()
+				+"; attributeType="+ldapAttributeType, e);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * GeneralizedTime is converted to milliseconds.
+	 */
+	public static class GeneralizedTimeConverter extends ValueConverter {
+
+		private final boolean fractionalPart;
+
+		public GeneralizedTimeConverter(boolean fractionalPart) {
+			super("generalizedTime");
+			this.fractionalPart = fractionalPart;
+		}
+
+		@Override
+		public Object toIcfValue(Value<?> ldapValue, String ldapAttributeName) {
+			try {
+				GeneralizedTime gt = new GeneralizedTime(ldapValue.getString());
+				return gt.getCalendar().getTimeInMillis();
+			} catch (ParseException e) {
+				throw new InvalidAttributeValueException("Wrong generalized time format in LDAP attribute "+ldapAttributeName+": "+e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public Value<Object> toLdapValue(AttributeType ldapAttributeType, Object icfAttributeValue) {
+			if (icfAttributeValue instanceof Long) {
+				return createStringValue(ldapAttributeType, LdapUtil.toGeneralizedTime((Long)icfAttributeValue, fractionalPart));
+			} else {
+				return createStringValue(ldapAttributeType, icfAttributeValue.toString());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+
+import com.evolveum.polygon.connector.ldap.AbstractLdapConfiguration;
+
+/**
+ * Executes several independent searches and merges their results.
+ *
+ * This is meant for lookups that return at most a handful of objects, e.g. "search by DN or by
+ * some other identifier" or "try all the domain controllers". Objects with the same UID are
+ * passed to the handler only once.
+ *
+ * The searches are executed one after another in the order in which they were added. They are
+ * not executed concurrently on purpose: the searches use the schema translator and the
+ * connections of the connector instance, and neither of them is thread-safe.
+ *
+ * Some tasks may be marked as decisive. If a decisive task finds an object then the remaining
+ * tasks are skipped. If the handler requests to stop then the running search is abandoned
+ * (the search strategy abandons the search when the handler returns false) and the remaining
+ * tasks are skipped as well.
+ *
+ * Errors of the tasks do not stop the other tasks. If some task has found an object then the
+ * errors are logged as warnings and ignored. Otherwise the first error is re-thrown.
+ */
+public class CombinedSearch<C extends AbstractLdapConfiguration> {
+
+	private static final Log LOG = Log.getLog(CombinedSearch.class);
+
+	private final ResultsHandler handler;
+	private final List<Task<C>> tasks = new ArrayList<>();
+	private final Set<String> seenUids = new HashSet<>();
+	private boolean stopped = false;
+
+	public CombinedSearch(ResultsHandler handler) {
+		super();
+		this.handler = handler;
+	}
+
+	public void addTask(Task<C> task) {
+		tasks.add(task);
+	}
+
+	/**
+	 * Executes the tasks. Returns search strategy that is the most relevant for the result:
+	 * strategy of a task that found something (decisive tasks are preferred).
+	 * If nothing was found then strategy of any completed task is returned.
+	 * May return null if no task provided a strategy.
+	 */
+	public SearchStrategy<C> execute() {
+		Task<C> selectedTask = null;
+		Map<Task<C>, RuntimeException> errors = new LinkedHashMap<>();
+
+		for (Task<C> task: tasks) {
+			if (stopped) {
+				LOG.ok("Skipping search {0}, handler requested to stop", task.getDescription());
+				continue;
+			}
+			if (selectedTask != null && selectedTask.isDecisive() && selectedTask.hasFound()) {
+				LOG.ok("Skipping search {0}, decisive search {1} has found the object", task.getDescription(), selectedTask.getDescription());
+				continue;
+			}
+			LOG.ok("Starting search {0}", task.getDescription());
+			try {
+				task.setSearchStrategy(task.search(createHandler(task)));
+			} catch (RuntimeException e) {
+				LOG.ok("Search {0} failed: {1}", task.getDescription(), e.getMessage());
+				errors.put(task, e);
+				continue;
+			}
+			if (selectedTask == null || isBetter(task, selectedTask)) {
+				selectedTask = task;
+			}
+		}
+
+		if (errors.isEmpty()) {
+			return selectedTask == null ? null : selectedTask.getSearchStrategy();
+		}
+
+		if (selectedTask != null && selectedTask.hasFound()) {
+			// The errors are not re-thrown, but they should not go unnoticed (e.g. a domain controller that is down)
+			for (Map.Entry<Task<C>, RuntimeException> error: errors.entrySet()) {
+				LOG.warn("Ignoring error of search {0}, search {1} has found the object: {2}",
+						error.getKey().getDescription(), selectedTask.getDescription(), error.getValue().getMessage());
+			}
+			return selectedTask.getSearchStrategy();
+		}
+
+		throw errors.values().iterator().next();
+	}
+
+	private boolean isBetter(Task<C> task, Task<C> selectedTask) {
+		if (task.getSearchStrategy() == null) {
+			return false;
+		}
+		if (selectedTask.getSearchStrategy() == null) {
+			return true;
+		}
+		if (task.hasFound() != selectedTask.hasFound()) {
+			return task.hasFound();
+		}
+		return task.isDecisive() && !selectedTask.isDecisive();
+	}
+
+	private ResultsHandler createHandler(final Task<C> task) {
+		return new ResultsHandler() {
+			@Override
+			public boolean handle(ConnectorObject connectorObject) {
+				if (stopped) {
+					// returning false abandons the search
+					return false;
+				}
+				task.setFound();
+				if (!seenUids.add(connectorObject.getUid().getUidValue())) {
+					// We have already returned this object, skip it.
+					LOG.ok("Search {0} found {1} again, skipping it", task.getDescription(), connectorObject.getUid().getUidValue());
+					return true;
+				}
+				if (!handler.handle(connectorObject)) {
+					LOG.ok("Handler requested to stop the search");
+					stopped = true;
+					return false;
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * A single search to execute. The implementation is supposed to create
+	 * search strategy with the provided handler and execute the search.
+	 */
+	public static abstract class Task<C extends AbstractLdapConfiguration> {
+
+		private final String description;
+		private final boolean decisive;
+		private boolean found = false;
+		private SearchStrategy<C> searchStrategy = null;
+
+		public Task(String description, boolean decisive) {
+			super();
+			this.description = description;
+			this.decisive = decisive;
+		}
+
+		protected abstract SearchStrategy<C> search(ResultsHandler handler);
+
+		public String getDescription() {
+			return description;
+		}
+
+		public boolean isDecisive() {
+			return decisive;
+		}
+
+		public boolean hasFound() {
+			return found;
+		}
+
+		private void setFound() {
+			found = true;
+		}
+
+		public SearchStrategy<C> getSearchStrategy() {
+			return searchStrategy;
+		}
+
+		private void setSearchStrategy(SearchStrategy<C> searchStrategy) {
+			this.searchStrategy = searchStrategy;
+		}
+
+		@Override
+		public String toString() {
+			return "Task(" + description + (decisive ? ", decisive" : "") + ")";
+		}
+	}
+
+}
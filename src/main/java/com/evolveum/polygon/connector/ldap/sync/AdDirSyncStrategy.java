@@ -55,6 +55,8 @@ import com.evolveum.polygon.connector.ldap.ConnectionManager;
 import com.evolveum.polygon.connector.ldap.LdapConfiguration;
 import com.evolveum.polygon.connector.ldap.LdapUtil;
 import com.evolveum.polygon.connector.ldap.ad.AdConstants;
+import com.evolveum.polygon.connector.ldap.ad.AdGuidLocationCache;
+import com.evolveum.polygon.connector.ldap.ad.AdSchemaTranslator;
 import com.evolveum.polygon.connector.ldap.schema.AbstractSchemaTranslator;
 
 /**
@@ -131,6 +133,7 @@ public class AdDirSyncStrategy<C extends AbstractLdapConfiguration> extends Sync
 					if (isDelted) {
 						deltaBuilder.setDeltaType(SyncDeltaType.DELETE);
 						deltaBuilder.setUid(new Uid(targetUid));
+						forgetGuidLocation(targetUid);
 						
 					} else {
 						deltaBuilder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
@@ -189,6 +192,17 @@ public class AdDirSyncStrategy<C extends AbstractLdapConfiguration> extends Sync
 		}
 	}
 
+	private void forgetGuidLocation(String guid) {
+		// The location of updated objects is remembered when the object is translated.
+		// But deleted objects are not translated at all.
+		if (getSchemaTranslator() instanceof AdSchemaTranslator) {
+			AdGuidLocationCache guidLocationCache = ((AdSchemaTranslator)getSchemaTranslator()).getGuidLocationCache();
+			if (guidLocationCache != null) {
+				guidLocationCache.forget(guid);
+			}
+		}
+	}
+
 	@Override
 	public SyncToken getLatestSyncToken(ObjectClass objectClass) {
 		byte[] cookie = null;
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+
+/**
+ * Helper methods for tests of BER encoded values.
+ */
+class BerTestUtil {
+
+	static byte[] concat(byte[]... parts) {
+		int length = 0;
+		for (byte[] part: parts) {
+			length += part.length;
+		}
+		byte[] result = new byte[length];
+		int pos = 0;
+		for (byte[] part: parts) {
+			System.arraycopy(part, 0, result, pos, part.length);
+			pos += part.length;
+		}
+		return result;
+	}
+
+	static void assertEncoded(byte[] expected, byte[] value) {
+		assertTrue("Expected " + Arrays.toString(expected) + " but was " + Arrays.toString(value), Arrays.equals(expected, value));
+	}
+
+}
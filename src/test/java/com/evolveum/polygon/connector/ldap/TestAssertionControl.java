@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import static com.evolveum.polygon.connector.ldap.BerTestUtil.assertEncoded;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the assertion control contains the same filter encoding as a search request
+ * encoded by Directory API.
+ */
+public class TestAssertionControl {
+
+	@Test
+	public void testEquality() throws Exception {
+		Control control = AssertionControl.create("(cn=foo)");
+
+		assertEquals(AssertionControl.OID, control.getOid());
+		assertTrue(control.isCritical());
+		assertEncoded(new byte[] { (byte)0xA3, 0x09, 0x04, 0x02, 'c', 'n', 0x04, 0x03, 'f', 'o', 'o' }, getValue(control));
+	}
+
+	@Test
+	public void testComplexFilter() throws Exception {
+		assertSameAsSearchFilter("(&(objectClass=inetOrgPerson)(!(sn=bar))(|(employeeNumber>=100)(employeeNumber<=5)(cn~=foo)(mail=*)))");
+	}
+
+	@Test
+	public void testLongValue() throws Exception {
+		StringBuilder filter = new StringBuilder("(description=");
+		for (int i = 0; i < 300; i++) {
+			filter.append((char)('a' + i % 26));
+		}
+		filter.append(")");
+		assertSameAsSearchFilter(filter.toString());
+	}
+
+	@Test
+	public void testUnsupportedFilter() throws Exception {
+		try {
+			AssertionControl.create("(cn=foo*)");
+			fail("Unexpected success");
+		} catch (InvalidAttributeValueException e) {
+			// expected
+		}
+	}
+
+	private void assertSameAsSearchFilter(String filter) throws Exception {
+		byte[] value = getValue(AssertionControl.create(filter));
+
+		SearchRequest searchRequest = new SearchRequestImpl();
+		searchRequest.setMessageId(1);
+		searchRequest.setBase(new Dn("dc=example,dc=com"));
+		searchRequest.setScope(SearchScope.OBJECT);
+		searchRequest.setFilter(filter);
+		ByteBuffer buffer = new LdapEncoder(LdapApiServiceFactory.getSingleton()).encodeMessage(searchRequest);
+		byte[] message = new byte[buffer.remaining()];
+		buffer.get(message);
+
+		assertTrue("Filter " + filter + " encoded as " + Arrays.toString(value) + " is not part of search request "
+				+ Arrays.toString(message), indexOf(message, value) >= 0);
+	}
+
+	private byte[] getValue(Control control) {
+		return ((CodecControl<?>)control).getValue();
+	}
+
+	private int indexOf(byte[] data, byte[] part) {
+		for (int i = 0; i + part.length <= data.length; i++) {
+			if (Arrays.equals(part, Arrays.copyOfRange(data, i, i + part.length))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import static com.evolveum.polygon.connector.ldap.BerTestUtil.assertEncoded;
+import static com.evolveum.polygon.connector.ldap.BerTestUtil.concat;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class TestBerUtil {
+
+	@Test
+	public void testShortLength() throws Exception {
+		assertEncoded(new byte[] { 0x04, 0x02, 0x01, 0x02 }, encode(BerUtil.TAG_OCTET_STRING, new byte[] { 0x01, 0x02 }));
+		assertEncoded(new byte[] { 0x04, 0x00 }, encode(BerUtil.TAG_OCTET_STRING, new byte[0]));
+	}
+
+	@Test
+	public void testLongLength() throws Exception {
+		byte[] content127 = content(127);
+		byte[] content128 = content(128);
+		byte[] content256 = content(256);
+		byte[] content65536 = content(65536);
+
+		assertEncoded(concat(new byte[] { 0x04, 0x7F }, content127), encode(BerUtil.TAG_OCTET_STRING, content127));
+		assertEncoded(concat(new byte[] { 0x04, (byte)0x81, (byte)0x80 }, content128), encode(BerUtil.TAG_OCTET_STRING, content128));
+		assertEncoded(concat(new byte[] { 0x04, (byte)0x82, 0x01, 0x00 }, content256), encode(BerUtil.TAG_OCTET_STRING, content256));
+		assertEncoded(concat(new byte[] { 0x04, (byte)0x83, 0x01, 0x00, 0x00 }, content65536), encode(BerUtil.TAG_OCTET_STRING, content65536));
+	}
+
+	@Test
+	public void testReadWhatWasWritten() throws Exception {
+		byte[] content = content(300);
+		ByteArrayOutputStream sequenceContent = new ByteArrayOutputStream();
+		BerUtil.writeTlv(sequenceContent, BerUtil.TAG_BOOLEAN, new byte[] { 0x00 });
+		BerUtil.writeTlv(sequenceContent, BerUtil.TAG_OCTET_STRING, content);
+
+		BerUtil.Reader reader = new BerUtil.Reader(encode(BerUtil.TAG_SEQUENCE, sequenceContent.toByteArray()));
+		BerUtil.Reader sequenceReader = reader.readConstructed(BerUtil.TAG_SET, BerUtil.TAG_SEQUENCE);
+
+		assertFalse(reader.hasMore());
+		assertEncoded(new byte[] { 0x00 }, sequenceReader.readPrimitive(BerUtil.TAG_BOOLEAN));
+		assertEncoded(content, sequenceReader.readPrimitive(BerUtil.TAG_OCTET_STRING));
+		assertFalse(sequenceReader.hasMore());
+	}
+
+	@Test
+	public void testReadUnexpectedTag() throws Exception {
+		BerUtil.Reader reader = new BerUtil.Reader(new byte[] { 0x04, 0x01, 0x00 });
+		try {
+			reader.readPrimitive(BerUtil.TAG_BOOLEAN);
+			fail("Unexpected success");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("0x4"));
+		}
+	}
+
+	@Test
+	public void testReadTruncated() throws Exception {
+		BerUtil.Reader reader = new BerUtil.Reader(new byte[] { 0x04, 0x05, 0x00 });
+		try {
+			reader.readPrimitive(BerUtil.TAG_OCTET_STRING);
+			fail("Unexpected success");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private byte[] encode(int tag, byte[] content) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BerUtil.writeTlv(out, tag, content);
+		return out.toByteArray();
+	}
+
+	private byte[] content(int length) {
+		byte[] content = new byte[length];
+		Arrays.fill(content, (byte)0x5A);
+		return content;
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import static com.evolveum.polygon.connector.ldap.BerTestUtil.assertEncoded;
+import static com.evolveum.polygon.connector.ldap.BerTestUtil.concat;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks encoding of the end transaction request (RFC 5805):
+ *
+ * txnEndReq ::= SEQUENCE {
+ *      commit         BOOLEAN DEFAULT TRUE,
+ *      identifier     OCTET STRING }
+ */
+public class TestLdapTransaction {
+
+	private static final byte[] IDENTIFIER = new byte[] { 0x01, 0x02, 0x03 };
+
+	@Test
+	public void testCommit() throws Exception {
+		byte[] value = LdapTransaction.encodeEndRequestValue(IDENTIFIER, true);
+
+		// Default commit value is not encoded
+		assertEncoded(new byte[] { 0x30, 0x05, 0x04, 0x03, 0x01, 0x02, 0x03 }, value);
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		byte[] value = LdapTransaction.encodeEndRequestValue(IDENTIFIER, false);
+
+		assertEncoded(new byte[] { 0x30, 0x08, 0x01, 0x01, 0x00, 0x04, 0x03, 0x01, 0x02, 0x03 }, value);
+	}
+
+	@Test
+	public void testLongIdentifier() throws Exception {
+		byte[] identifier = new byte[200];
+		Arrays.fill(identifier, (byte)0x5A);
+
+		byte[] value = LdapTransaction.encodeEndRequestValue(identifier, true);
+
+		// Lengths over 127 bytes use the long form
+		assertEncoded(concat(new byte[] { 0x30, (byte)0x81, (byte)203, 0x04, (byte)0x81, (byte)200 }, identifier), value);
+	}
+
+}
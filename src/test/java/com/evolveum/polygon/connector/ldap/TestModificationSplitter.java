@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.testng.annotations.Test;
+
+public class TestModificationSplitter {
+
+	private static final String MEMBER = "member";
+
+	@Test
+	public void testSmallModifications() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(10, null);
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.ADD_ATTRIBUTE, MEMBER, 0, 10));
+
+		assertFalse(splitter.needsSplitting(modifications));
+	}
+
+	@Test
+	public void testSplittingDisabled() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(0, null);
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.ADD_ATTRIBUTE, MEMBER, 0, 5000));
+
+		assertFalse(splitter.needsSplitting(modifications));
+	}
+
+	@Test
+	public void testAddChunksWithOtherModifications() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(10, null);
+		Modification description = modification(ModificationOperation.REPLACE_ATTRIBUTE, "description", 0, 1);
+		List<Modification> modifications = Arrays.asList(description, modification(ModificationOperation.ADD_ATTRIBUTE, MEMBER, 0, 25));
+		assertTrue(splitter.needsSplitting(modifications));
+
+		List<List<Modification>> requests = splitter.split(modifications, null);
+
+		assertEquals(4, requests.size());
+		// The modifications that are not split go first, they carry the assertion
+		assertEquals(Arrays.asList(description), requests.get(0));
+		assertChunk(requests.get(1), ModificationOperation.ADD_ATTRIBUTE, 0, 10);
+		assertChunk(requests.get(2), ModificationOperation.ADD_ATTRIBUTE, 10, 10);
+		assertChunk(requests.get(3), ModificationOperation.ADD_ATTRIBUTE, 20, 5);
+	}
+
+	@Test
+	public void testOnlyChunks() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(10, null);
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.REMOVE_ATTRIBUTE, MEMBER, 0, 20));
+
+		List<List<Modification>> requests = splitter.split(modifications, null);
+
+		// The first chunk is the first request, no value is lost
+		assertEquals(2, requests.size());
+		assertChunk(requests.get(0), ModificationOperation.REMOVE_ATTRIBUTE, 0, 10);
+		assertChunk(requests.get(1), ModificationOperation.REMOVE_ATTRIBUTE, 10, 10);
+	}
+
+	@Test
+	public void testLargeReplaceWithSmallDifference() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(10, null);
+		// Current values are 0..14, new values are 5..19
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.REPLACE_ATTRIBUTE, MEMBER, 5, 15));
+
+		List<List<Modification>> requests = splitter.split(modifications, new Difference(0, 15));
+
+		// The difference fits in one request
+		assertEquals(1, requests.size());
+		assertEquals(2, requests.get(0).size());
+		assertChunk(requests.get(0).subList(0, 1), ModificationOperation.REMOVE_ATTRIBUTE, 0, 5);
+		assertChunk(requests.get(0).subList(1, 2), ModificationOperation.ADD_ATTRIBUTE, 15, 5);
+	}
+
+	@Test
+	public void testLargeReplaceWithLargeDifference() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(10, null);
+		// Current values are 0..11, new values are 12..23
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.REPLACE_ATTRIBUTE, MEMBER, 12, 12));
+
+		List<List<Modification>> requests = splitter.split(modifications, new Difference(0, 12));
+
+		assertEquals(4, requests.size());
+		assertChunk(requests.get(0), ModificationOperation.ADD_ATTRIBUTE, 12, 10);
+		assertChunk(requests.get(1), ModificationOperation.ADD_ATTRIBUTE, 22, 2);
+		assertChunk(requests.get(2), ModificationOperation.REMOVE_ATTRIBUTE, 0, 10);
+		assertChunk(requests.get(3), ModificationOperation.REMOVE_ATTRIBUTE, 10, 2);
+	}
+
+	@Test
+	public void testDeltaReplace() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(0, new String[] { "Member" });
+		// Current values are 0..4, new values are 1..5
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.REPLACE_ATTRIBUTE, MEMBER, 1, 5));
+		assertTrue(splitter.needsSplitting(modifications));
+
+		List<List<Modification>> requests = splitter.split(modifications, new Difference(0, 5));
+
+		assertEquals(1, requests.size());
+		assertEquals(2, requests.get(0).size());
+		assertChunk(requests.get(0).subList(0, 1), ModificationOperation.REMOVE_ATTRIBUTE, 0, 1);
+		assertChunk(requests.get(0).subList(1, 2), ModificationOperation.ADD_ATTRIBUTE, 5, 1);
+	}
+
+	@Test
+	public void testDeltaReplaceNoChange() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(0, new String[] { MEMBER });
+		List<Modification> modifications = Arrays.asList(modification(ModificationOperation.REPLACE_ATTRIBUTE, MEMBER, 0, 5));
+
+		List<List<Modification>> requests = splitter.split(modifications, new Difference(0, 5));
+
+		assertTrue(requests.isEmpty());
+	}
+
+	@Test
+	public void testDeltaReplaceRemoval() throws Exception {
+		ModificationSplitter splitter = new ModificationSplitter(0, new String[] { MEMBER });
+		List<Modification> modifications = Arrays.asList((Modification)new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, MEMBER));
+
+		// Removal of all the values is sent as it is
+		assertFalse(splitter.needsSplitting(modifications));
+	}
+
+	private Modification modification(ModificationOperation operation, String attributeName, int start, int count) {
+		return new DefaultModification(operation, attributeName, values(start, count).toArray(new Value[count]));
+	}
+
+	private static List<Value<?>> values(int start, int count) {
+		List<Value<?>> values = new ArrayList<>(count);
+		for (int i = start; i < start + count; i++) {
+			values.add(new StringValue("cn=member" + i));
+		}
+		return values;
+	}
+
+	private void assertChunk(List<Modification> request, ModificationOperation operation, int start, int count) {
+		assertEquals("Wrong number of modifications in " + request, 1, request.size());
+		Modification modification = request.get(0);
+		assertEquals(operation, modification.getOperation());
+		assertEquals(MEMBER, modification.getAttribute().getUpId());
+		List<Value<?>> actualValues = new ArrayList<>();
+		for (Value<?> value: modification.getAttribute()) {
+			actualValues.add(value);
+		}
+		assertEquals(values(start, count), actualValues);
+	}
+
+	/**
+	 * Difference against current values of the attribute, compared as strings.
+	 */
+	private static class Difference implements ModificationSplitter.ValueDifference {
+
+		private final List<Value<?>> currentValues;
+
+		Difference(int start, int count) {
+			this.currentValues = values(start, count);
+		}
+
+		@Override
+		public void compute(String attributeName, List<Value<?>> newValues, List<Value<?>> valuesToDelete, List<Value<?>> valuesToAdd) {
+			for (Value<?> newValue: newValues) {
+				if (!currentValues.contains(newValue)) {
+					valuesToAdd.add(newValue);
+				}
+			}
+			for (Value<?> currentValue: currentValues) {
+				if (!newValues.contains(currentValue)) {
+					valuesToDelete.add(currentValue);
+				}
+			}
+		}
+	}
+
+}
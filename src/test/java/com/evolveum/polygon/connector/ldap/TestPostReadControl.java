@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap;
+
+import static com.evolveum.polygon.connector.ldap.BerTestUtil.concat;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the post-read control encoding against the encoding of Directory API.
+ * The response is encoded by Directory API and then parsed by the control.
+ */
+public class TestPostReadControl {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testCreateRequest() throws Exception {
+		Control control = PostReadControl.createRequest("entryUUID", "cn");
+
+		assertEquals(PostReadControl.OID, control.getOid());
+		assertFalse(control.isCritical());
+		// AttributeSelection ::= SEQUENCE OF selector LDAPString
+		byte[] expected = concat(new byte[] { 0x30, 0x0F, 0x04, 0x09 }, bytes("entryUUID"), new byte[] { 0x04, 0x02 }, bytes("cn"));
+		assertTrue(Arrays.equals(expected, ((CodecControl<?>)control).getValue()));
+	}
+
+	@Test
+	public void testResponseRoundTrip() throws Exception {
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			longValue.append((char)('a' + i % 26));
+		}
+		SearchResultEntry searchResultEntry = new SearchResultEntryImpl(1);
+		searchResultEntry.setEntry(new DefaultEntry("uid=foo,ou=people,dc=example,dc=com",
+				"objectClass: inetOrgPerson",
+				"uid: foo",
+				"description: " + longValue,
+				"entryUUID: 7b6a2b7c-0000-1000-8000-00aa00bbccdd",
+				"cn: Foo",
+				"cn: Foo Bar"));
+
+		Control responseControl = createResponseControl(searchResultEntry);
+
+		List<byte[]> uuids = PostReadControl.getAttributeValues(responseControl, "entryUUID");
+		assertNotNull("No entryUUID", uuids);
+		assertEquals(1, uuids.size());
+		assertEquals("7b6a2b7c-0000-1000-8000-00aa00bbccdd", new String(uuids.get(0), UTF8));
+
+		List<byte[]> descriptions = PostReadControl.getAttributeValues(responseControl, "DESCRIPTION");
+		assertNotNull("No description", descriptions);
+		assertEquals(longValue.toString(), new String(descriptions.get(0), UTF8));
+
+		List<byte[]> cns = PostReadControl.getAttributeValues(responseControl, "cn");
+		assertNotNull("No cn", cns);
+		assertEquals(2, cns.size());
+
+		assertNull(PostReadControl.getAttributeValues(responseControl, "sn"));
+	}
+
+	@Test
+	public void testMalformedResponse() throws Exception {
+		OpaqueControl control = new OpaqueControl(PostReadControl.OID);
+		control.setEncodedValue(new byte[] { 0x64, 0x7F, 0x04, 0x00 });
+
+		assertNull(PostReadControl.getAttributeValues(control, "entryUUID"));
+	}
+
+	/**
+	 * Encodes the message with Directory API and takes the protocolOp part of the LDAPMessage.
+	 * This is how the server sends the entry in the value of the response control.
+	 */
+	private Control createResponseControl(SearchResultEntry searchResultEntry) throws Exception {
+		ByteBuffer buffer = new LdapEncoder(LdapApiServiceFactory.getSingleton()).encodeMessage(searchResultEntry);
+		byte[] message = new byte[buffer.remaining()];
+		buffer.get(message);
+		// LDAPMessage ::= SEQUENCE { messageID INTEGER, protocolOp ... }
+		int pos = skipHeader(message, 0);
+		pos = skipHeader(message, pos) + message[pos + 1];
+		OpaqueControl control = new OpaqueControl(PostReadControl.OID);
+		control.setEncodedValue(Arrays.copyOfRange(message, pos, message.length));
+		return control;
+	}
+
+	private int skipHeader(byte[] data, int pos) {
+		int length = data[pos + 1] & 0xFF;
+		if ((length & 0x80) == 0) {
+			return pos + 2;
+		}
+		return pos + 2 + (length & 0x7F);
+	}
+
+	private byte[] bytes(String string) {
+		return string.getBytes(UTF8);
+	}
+
+}
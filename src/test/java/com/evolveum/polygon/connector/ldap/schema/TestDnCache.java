@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.testng.annotations.Test;
+
+public class TestDnCache {
+
+	private static final String DN_PEOPLE = "ou=people,dc=example,dc=com";
+	private static final String DN_FOO = "uid=foo,ou=people,dc=example,dc=com";
+	private static final String DN_BAR = "uid=bar,ou=people,dc=example,dc=com";
+	private static final String DN_GROUP = "cn=admins,ou=groups,dc=example,dc=com";
+
+	@Test
+	public void testHit() throws Exception {
+		DnCache cache = new DnCache(null);
+
+		Dn dn = cache.getDn(DN_FOO);
+
+		assertEquals(DN_FOO, dn.getName());
+		assertSame(dn, cache.getDn(DN_FOO));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(50, cache.getHitRatio());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		DnCache cache = new DnCache(null, 3);
+		Dn foo = cache.getDn(DN_FOO);
+		Dn bar = cache.getDn(DN_BAR);
+		Dn people = cache.getDn(DN_PEOPLE);
+		// foo is now used more recently than bar
+		cache.getDn(DN_FOO);
+
+		cache.getDn(DN_GROUP);
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertSame(foo, cache.getDn(DN_FOO));
+		assertSame(people, cache.getDn(DN_PEOPLE));
+		assertNotSame(bar, cache.getDn(DN_BAR));
+	}
+
+	@Test
+	public void testInvalidateRenamedEntry() throws Exception {
+		DnCache cache = new DnCache(null);
+		Dn people = cache.getDn(DN_PEOPLE);
+		Dn foo = cache.getDn(DN_FOO);
+		Dn bar = cache.getDn(DN_BAR);
+
+		cache.invalidate(new Dn(DN_FOO));
+
+		assertEquals(2, cache.size());
+		assertNotSame(foo, cache.getDn(DN_FOO));
+		// Parent and siblings stay
+		assertSame(people, cache.getDn(DN_PEOPLE));
+		assertSame(bar, cache.getDn(DN_BAR));
+	}
+
+	@Test
+	public void testInvalidateDeletedSubtree() throws Exception {
+		DnCache cache = new DnCache(null);
+		Dn people = cache.getDn(DN_PEOPLE);
+		Dn foo = cache.getDn(DN_FOO);
+		Dn bar = cache.getDn(DN_BAR);
+		Dn group = cache.getDn(DN_GROUP);
+
+		cache.invalidate(new Dn(DN_PEOPLE));
+
+		assertEquals(1, cache.size());
+		assertSame(group, cache.getDn(DN_GROUP));
+		assertNotSame(people, cache.getDn(DN_PEOPLE));
+		assertNotSame(foo, cache.getDn(DN_FOO));
+		assertNotSame(bar, cache.getDn(DN_BAR));
+	}
+
+}
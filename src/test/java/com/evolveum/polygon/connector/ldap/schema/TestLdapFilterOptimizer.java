@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.testng.annotations.Test;
+
+public class TestLdapFilterOptimizer {
+
+	private final LdapFilterOptimizer optimizer = new LdapFilterOptimizer(new String[] { "uid" });
+
+	@Test
+	public void testFlattenAnd() throws Exception {
+		assertOptimized("(&(cn=foo)(sn=bar)(givenName=baz))", "(&(cn=foo)(&(sn=bar)(&(givenName=baz))))");
+	}
+
+	@Test
+	public void testFlattenOr() throws Exception {
+		assertOptimized("(|(cn=foo)(sn=bar)(givenName=baz))", "(|(cn=foo)(|(sn=bar)(givenName=baz)))");
+	}
+
+	@Test
+	public void testRemoveDuplicates() throws Exception {
+		assertOptimized("(&(cn=foo)(sn=bar))", "(&(cn=foo)(sn=bar)(cn=foo))");
+		assertOptimized("(cn=foo)", "(|(cn=foo)(cn=foo))");
+	}
+
+	@Test
+	public void testDifferentCaseNotMerged() throws Exception {
+		// Values are not normalized, the matching rule may be case-sensitive
+		assertOptimized("(&(cn=Foo)(cn=foo))", "(&(cn=Foo)(cn=foo))");
+		assertOptimized("(|(cn=Foo)(cn=foo))", "(|(cn=Foo)(cn=foo))");
+	}
+
+	@Test
+	public void testNoRewrite() throws Exception {
+		assertOptimized("(&(cn=foo)(sn=bar))", "(&(cn=foo)(sn=bar))");
+		assertOptimized("(!(cn=foo))", "(!(cn=foo))");
+	}
+
+	@Test
+	public void testContradiction() throws Exception {
+		ExprNode optimized = optimize("(&(cn=foo)(sn=bar)(!(cn=foo)))");
+
+		assertTrue("Not false: " + optimized, LdapFilterOptimizer.isFalse(optimized));
+	}
+
+	@Test
+	public void testNestedContradiction() throws Exception {
+		// The contradiction is found after the nested clause is flattened
+		ExprNode optimized = optimize("(&(!(cn=foo))(&(sn=bar)(cn=foo)))");
+
+		assertTrue("Not false: " + optimized, LdapFilterOptimizer.isFalse(optimized));
+	}
+
+	@Test
+	public void testNoContradictionWithoutSchema() throws Exception {
+		// Single-valued attributes are only known from the schema
+		ExprNode optimized = optimize("(&(employeeNumber=1)(employeeNumber=2))");
+
+		assertFalse("Unexpected false: " + optimized, LdapFilterOptimizer.isFalse(optimized));
+	}
+
+	@Test
+	public void testDoubleNegation() throws Exception {
+		assertOptimized("(cn=foo)", "(!(!(cn=foo)))");
+		assertOptimized("(&(cn=foo)(!(sn=bar)))", "(&(cn=foo)(!(!(!(sn=bar)))))");
+	}
+
+	@Test
+	public void testConstants() throws Exception {
+		assertOptimized("(cn=foo)", "(&(objectClass=*)(cn=foo))");
+		assertOptimized("(cn=foo)", "(|(!(objectClass=*))(cn=foo))");
+		assertTrue(LdapFilterOptimizer.isTrue(optimize("(|(cn=foo)(objectClass=*))")));
+		assertTrue(LdapFilterOptimizer.isFalse(optimize("(&(cn=foo)(!(objectClass=*)))")));
+		assertTrue(LdapFilterOptimizer.isFalse(optimize("(!(objectClass=*))")));
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		assertOptimized("(&(uid=foo)(cn=bar)(mail=a*)(employeeNumber>=10)(objectClass=person)(sn=*)(|(l=x)(l=y))(!(ou=z)))",
+				"(&(!(ou=z))(sn=*)(|(l=x)(l=y))(objectClass=person)(employeeNumber>=10)(mail=a*)(cn=bar)(uid=foo))");
+	}
+
+	@Test
+	public void testOrderIsStable() throws Exception {
+		// Clauses of the same kind stay in the original order
+		assertOptimized("(&(sn=bar)(cn=foo)(objectClass=person))", "(&(objectClass=person)(sn=bar)(cn=foo))");
+	}
+
+	private ExprNode optimize(String filter) throws Exception {
+		return optimizer.optimize(FilterParser.parse(filter));
+	}
+
+	private void assertOptimized(String expected, String filter) throws Exception {
+		assertEquals("Wrong optimization of " + filter, expected, optimize(filter).toString());
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.ldap.schema;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.model.entry.BinaryValue;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.testng.annotations.Test;
+
+/**
+ * Converts values to LDAP and back and checks that the values survive the trip.
+ */
+public class TestValueConverter {
+
+	private static final String ATTRIBUTE_NAME = "foo";
+
+	@Test
+	public void testString() throws Exception {
+		Value<Object> ldapValue = ValueConverter.STRING.toLdapValue(attributeType(), "Foo Bar");
+
+		assertTrue(ldapValue.isHumanReadable());
+		assertEquals("Foo Bar", ldapValue.getString());
+		assertEquals("Foo Bar", roundTrip(ValueConverter.STRING, "Foo Bar"));
+	}
+
+	@Test
+	public void testBinary() throws Exception {
+		byte[] bytes = new byte[] { 0x00, 0x7F, (byte)0x80, (byte)0xFF };
+		Value<Object> ldapValue = ValueConverter.BINARY.toLdapValue(attributeType(), bytes);
+
+		assertFalse(ldapValue.isHumanReadable());
+		assertTrue(Arrays.equals(bytes, (byte[])roundTrip(ValueConverter.BINARY, bytes)));
+	}
+
+	@Test
+	public void testBinaryFromString() throws Exception {
+		// e.g. userPassword
+		Object icfValue = roundTrip(ValueConverter.BINARY, "s\u00e9cret");
+
+		assertTrue(Arrays.equals("s\u00e9cret".getBytes("UTF-8"), (byte[])icfValue));
+	}
+
+	@Test
+	public void testBoolean() throws Exception {
+		assertEquals("TRUE", ValueConverter.BOOLEAN.toLdapValue(attributeType(), Boolean.TRUE).getString());
+		assertEquals("FALSE", ValueConverter.BOOLEAN.toLdapValue(attributeType(), Boolean.FALSE).getString());
+		assertEquals(Boolean.TRUE, roundTrip(ValueConverter.BOOLEAN, Boolean.TRUE));
+		assertEquals(Boolean.FALSE, roundTrip(ValueConverter.BOOLEAN, Boolean.FALSE));
+	}
+
+	@Test
+	public void testInteger() throws Exception {
+		assertEquals(42, roundTrip(ValueConverter.INTEGER, 42));
+		assertEquals(-1, roundTrip(ValueConverter.INTEGER, -1));
+		assertEquals(Integer.MAX_VALUE, roundTrip(ValueConverter.INTEGER, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testLong() throws Exception {
+		assertEquals(Long.MAX_VALUE, roundTrip(ValueConverter.LONG, Long.MAX_VALUE));
+		assertEquals(-5000000000L, roundTrip(ValueConverter.LONG, -5000000000L));
+	}
+
+	@Test
+	public void testDetect() throws Exception {
+		byte[] bytes = new byte[] { 0x01, 0x02 };
+
+		assertEquals("foo", ValueConverter.DETECT.toIcfValue(new StringValue("foo"), ATTRIBUTE_NAME));
+		assertTrue(Arrays.equals(bytes, (byte[])ValueConverter.DETECT.toIcfValue(new BinaryValue(bytes), ATTRIBUTE_NAME)));
+		assertEquals("foo", roundTrip(ValueConverter.DETECT, "foo"));
+	}
+
+	@Test
+	public void testGeneralizedTime() throws Exception {
+		ValueConverter converter = new ValueConverter.GeneralizedTimeConverter(false);
+		// 2017-03-04T05:06:07Z
+		long millis = 1488603967000L;
+
+		assertEquals("20170304050607Z", converter.toLdapValue(attributeType(), millis).getString());
+		assertEquals(millis, roundTrip(converter, millis));
+	}
+
+	@Test
+	public void testGeneralizedTimeFraction() throws Exception {
+		ValueConverter converter = new ValueConverter.GeneralizedTimeConverter(true);
+		long millis = 1488603967123L;
+
+		assertEquals(millis, roundTrip(converter, millis));
+	}
+
+	@Test
+	public void testGeneralizedTimeInvalid() throws Exception {
+		ValueConverter converter = new ValueConverter.GeneralizedTimeConverter(false);
+		try {
+			converter.toIcfValue(new StringValue("yesterday"), ATTRIBUTE_NAME);
+			fail("Unexpected success");
+		} catch (InvalidAttributeValueException e) {
+			// expected
+		}
+	}
+
+	private Object roundTrip(ValueConverter converter, Object icfValue) {
+		Value<Object> ldapValue = converter.toLdapValue(attributeType(), icfValue);
+		return converter.toIcfValue(ldapValue, ATTRIBUTE_NAME);
+	}
+
+	private AttributeType attributeType() {
+		AttributeType attributeType = new AttributeType("1.3.6.1.4.1.45689.1.1");
+		attributeType.setNames(ATTRIBUTE_NAME);
+		return attributeType;
+	}
+
+}